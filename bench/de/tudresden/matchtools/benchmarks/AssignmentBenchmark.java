@@ -0,0 +1,82 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseRCDoubleMatrix2D;
+import de.tudresden.matchtools.SimMatrix;
+
+/**
+ * 1:1 selection on large thresholded matrices: size x size with about
+ * candidates scores above 0.13 per row, clustered around the diagonal so that
+ * rows compete for the same columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AssignmentBenchmark {
+
+	@Param({"50000"})
+	public int size;
+
+	@Param({"5", "20"})
+	public int candidates;
+
+	private DoubleMatrix2D scores;
+	private SimMatrix m;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(1);
+		int[] rows = new int[size * candidates];
+		int[] columns = new int[size * candidates];
+		double[] values = new double[size * candidates];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			int first = Math.max(0, Math.min(size - 4 * candidates,
+					i + (int) (random.nextGaussian() * candidates)));
+			for (int c = 0; c < candidates; c++) {
+				rows[k] = i;
+				columns[k] = first + 4 * c + random.nextInt(4);
+				values[k] = 0.13 + 0.87 * random.nextDouble();
+				k++;
+			}
+		}
+		scores = new SparseRCDoubleMatrix2D(size, size, rows, columns, values,
+				false, false, false);
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		m = new SimMatrix(scores.copy());
+	}
+
+	@Benchmark
+	public SimMatrix selectOptimalAssignment() {
+		m.selectOptimalAssignment();
+		return m;
+	}
+
+	@Benchmark
+	public SimMatrix selectBipartiteGreedy() {
+		m.selectBipartiteGreedy();
+		return m;
+	}
+}
@@ -0,0 +1,123 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import de.tudresden.matchtools.MatchTools;
+import de.tudresden.matchtools.SimMatrix;
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+import de.tudresden.matchtools.weights.Weighter;
+
+/**
+ * Many request threads sharing one MatchTools, as in a server: every request
+ * prepares and matches a small schema pair. Throughput should grow with the
+ * number of threads up to the number of cores. Each request is computed in its
+ * calling thread (parallelism 1). Setup first checks that requests computed
+ * concurrently return the same matrices as one computed alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentMatchBenchmark {
+
+	@Param({"50"})
+	public int size;
+
+	private MatchTools tools;
+	private String[] a;
+	private String[] b;
+	private List<StringSimilarity> matchers;
+
+	@Setup
+	public void setup() throws InterruptedException, ExecutionException {
+		tools = new MatchTools(new Weighter());
+		tools.setParallelism(1);
+		a = Corpora.generate("headers", size, 1);
+		b = Corpora.generate("values", size, 2);
+		matchers = Arrays.asList(tools.weightedByWordLevenshtein, tools.ngram,
+				tools.jaro);
+		checkConcurrentResults();
+	}
+
+	private void checkConcurrentResults() throws InterruptedException, ExecutionException {
+		DoubleMatrix2D expected = request().getM();
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<SimMatrix>> results = new ArrayList<>();
+			for (int i = 0; i < 4 * threads; i++) {
+				results.add(executor.submit(new Callable<SimMatrix>() {
+					@Override
+					public SimMatrix call() {
+						return request();
+					}
+				}));
+			}
+			for (Future<SimMatrix> result : results) {
+				if (!result.get().getM().equals(expected))
+					throw new IllegalStateException(
+							"a concurrent request returned a different matrix than a serial one");
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private SimMatrix request() {
+		PreparedString[] preparedA = tools.prepare(a);
+		PreparedString[] preparedB = tools.prepare(b);
+		SimMatrix m = tools.doMatch(preparedA, preparedB, matchers);
+		m.selectThreshold(0.13);
+		m.selectBipartiteGreedy();
+		return m;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SimMatrix threads1() {
+		return request();
+	}
+
+	@Benchmark
+	@Threads(2)
+	public SimMatrix threads2() {
+		return request();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SimMatrix threads4() {
+		return request();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public SimMatrix threadsMax() {
+		return request();
+	}
+}
@@ -0,0 +1,77 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic string corpora resembling web table column headers and cell
+ * values, with occasional misspellings.
+ */
+public class Corpora {
+	static final String[] HEADER_WORDS = {"id", "name", "first", "last", "full",
+			"title", "date", "birth", "death", "year", "city", "country", "state",
+			"region", "zip", "code", "postal", "address", "street", "phone", "email",
+			"company", "organization", "department", "position", "salary", "price",
+			"amount", "total", "quantity", "unit", "currency", "population", "area",
+			"capital", "language", "type", "category", "status", "description",
+			"comment", "rank", "score", "team", "league", "season", "genre", "artist",
+			"album", "release", "label", "author", "publisher", "isbn", "pages",
+			"rating", "votes", "director", "runtime", "budget", "revenue", "latitude",
+			"longitude", "elevation", "founded", "employees", "industry", "website"};
+
+	static final String[] VALUE_WORDS = {"united", "states", "kingdom", "new",
+			"york", "london", "berlin", "dresden", "paris", "university", "college",
+			"river", "mountain", "lake", "north", "south", "east", "west", "saint",
+			"international", "national", "bank", "airport", "station", "central",
+			"park", "hotel", "museum", "church", "school", "hospital", "football",
+			"club", "records", "music", "film", "festival", "company", "group",
+			"limited", "inc", "corporation", "systems", "software", "energy",
+			"motors", "airlines", "press", "media", "the", "of", "and", "de", "la"};
+
+	private Corpora() {
+	}
+
+	/**
+	 * @param kind "headers" for 1-3 header words, "values" for 2-6 value words
+	 *        mixed with numbers
+	 */
+	public static String[] generate(String kind, int size, long seed) {
+		Random random = new Random(seed);
+		boolean headers = "headers".equals(kind);
+		String[] vocabulary = headers ? HEADER_WORDS : VALUE_WORDS;
+		String[] strings = new String[size];
+		for (int i = 0; i < size; i++) {
+			int words = headers ? 1 + random.nextInt(3) : 2 + random.nextInt(5);
+			StringBuilder sb = new StringBuilder();
+			for (int w = 0; w < words; w++) {
+				if (w > 0)
+					sb.append(' ');
+				if (!headers && random.nextInt(8) == 0)
+					sb.append(random.nextInt(10000));
+				else
+					sb.append(misspell(vocabulary[random.nextInt(vocabulary.length)], random));
+			}
+			strings[i] = sb.toString();
+		}
+		return strings;
+	}
+
+	private static String misspell(String word, Random random) {
+		if (word.length() < 3 || random.nextInt(10) != 0)
+			return word;
+		StringBuilder sb = new StringBuilder(word);
+		int pos = random.nextInt(word.length() - 1);
+		switch (random.nextInt(3)) {
+		case 0:
+			sb.deleteCharAt(pos);
+			break;
+		case 1:
+			sb.insert(pos, (char) ('a' + random.nextInt(26)));
+			break;
+		default:
+			char c = sb.charAt(pos);
+			sb.setCharAt(pos, sb.charAt(pos + 1));
+			sb.setCharAt(pos + 1, c);
+		}
+		return sb.toString();
+	}
+}
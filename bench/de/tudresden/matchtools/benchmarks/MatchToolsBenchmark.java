@@ -0,0 +1,94 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tudresden.matchtools.HitMatrix;
+import de.tudresden.matchtools.MatchTools;
+import de.tudresden.matchtools.SimMatrix;
+import de.tudresden.matchtools.datastructures.MatchingIndices;
+import de.tudresden.matchtools.datastructures.PreparedHaystack;
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+import de.tudresden.matchtools.weights.Weighter;
+
+/**
+ * Whole-matrix matching of a header corpus against a value corpus, and locating
+ * a needle in a table of size / 10 rows and 10 columns, directly and through
+ * a PreparedHaystack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchToolsBenchmark {
+
+	@Param({"100", "500"})
+	public int size;
+
+	@Param({"1", "4"})
+	public int parallelism;
+
+	private MatchTools tools;
+	private String[] a;
+	private String[] b;
+	private PreparedString[] preparedA;
+	private PreparedString[] preparedB;
+	private List<StringSimilarity> matchers;
+	private String needle;
+	private String[][] haystack;
+	private PreparedHaystack preparedHaystack;
+
+	@Setup
+	public void setup() {
+		tools = new MatchTools(new Weighter());
+		tools.setParallelism(parallelism);
+		a = Corpora.generate("headers", size, 1);
+		b = Corpora.generate("values", size, 2);
+		preparedA = tools.prepare(a);
+		preparedB = tools.prepare(b);
+		matchers = Arrays.asList(tools.weightedByWordLevenshtein, tools.ngram);
+
+		needle = a[0];
+		haystack = new String[Math.max(size / 10, 1)][];
+		for (int r = 0; r < haystack.length; r++) {
+			haystack[r] = Arrays.copyOfRange(b, (r * 10) % size, (r * 10) % size + 10);
+		}
+		preparedHaystack = tools.prepare(haystack);
+	}
+
+	@Benchmark
+	public SimMatrix doMatch() {
+		return tools.doMatch(a, b);
+	}
+
+	@Benchmark
+	public SimMatrix doMatchPrepared() {
+		return tools.doMatch(preparedA, preparedB, matchers);
+	}
+
+	@Benchmark
+	public HitMatrix locate() {
+		return tools.locate(needle, haystack);
+	}
+
+	@Benchmark
+	public List<MatchingIndices> locatePrepared() {
+		return tools.locate(needle, preparedHaystack, 10);
+	}
+}
@@ -0,0 +1,935 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.search.spell.JaroWinklerDistance;
+import org.apache.lucene.search.spell.LevensteinDistance;
+import org.apache.lucene.search.spell.NGramDistance;
+import org.apache.lucene.search.spell.StringDistance;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import com.google.common.util.concurrent.Uninterruptibles;
+import de.tudresden.matchtools.AggregationStrategy;
+import de.tudresden.matchtools.MatchService;
+import de.tudresden.matchtools.MatchTools;
+import de.tudresden.matchtools.SimMatrix;
+import de.tudresden.matchtools.StorageMode;
+import de.tudresden.matchtools.datastructures.MappingStatistics;
+import de.tudresden.matchtools.datastructures.Match;
+import de.tudresden.matchtools.datastructures.MatchingIndices;
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+import de.tudresden.matchtools.similarities.BoundedLevenshtein;
+import de.tudresden.matchtools.similarities.BoundedSimilarity;
+import de.tudresden.matchtools.similarities.SetSimilarities;
+import de.tudresden.matchtools.similarities.SetSimilarityJoin;
+import de.tudresden.matchtools.similarities.StringSimilarities;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+import de.tudresden.matchtools.weights.Weighter;
+
+/**
+ * Compares the kernels of MatchTools with the implementations that define
+ * their results, Lucene's string distances or brute force, on random inputs.
+ * Build the benchmarks and run
+ * <pre>
+ * java -cp target/benchmarks.jar de.tudresden.matchtools.benchmarks.ReferenceChecks [seed]
+ * </pre>
+ * Every mismatch is printed; the exit status is 1 if there were any.
+ */
+public class ReferenceChecks {
+	private static final int MAX_REPORTED = 10;
+	/** weighs words differently, for the weighted similarities and their bounds */
+	private static final Weighter WORD_WEIGHTS = new Weighter() {
+		@Override
+		public double weight(String s) {
+			return 0.25 + (s.hashCode() & 7) / 4.0;
+		}
+	};
+
+	private static int failures;
+	private static int reported;
+
+	private ReferenceChecks() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		checkBoundedLevenshtein(new Random(seed));
+		checkOptimalAssignment(new Random(seed));
+		checkStringSimilarity("Levenshtein", new StringSimilarities.Levenshtein(),
+				new LevensteinDistance(), new Random(seed));
+		for (int n = 1; n <= 4; n++) {
+			checkStringSimilarity("NGram(" + n + ")", new StringSimilarities.NGram(n),
+					new NGramDistance(n), new Random(seed));
+		}
+		checkStringSimilarity("Jaro", new StringSimilarities.Jaro(),
+				new JaroWinklerDistance(), new Random(seed));
+		checkJaccard(new Random(seed));
+		checkSetSimilarityJoin(new Random(seed));
+		checkUpperBounds(new Random(seed));
+		checkThresholdMatch(new Random(seed));
+		checkUpdateMatch(new Random(seed));
+		checkNearMaxima(new Random(seed));
+		checkTopK(new Random(seed));
+		checkStatistics(new Random(seed));
+		checkMatchService(new Random(seed));
+		if (failures > 0) {
+			System.out.println(failures + " mismatches");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * BoundedLevenshtein.matches against LevensteinDistance.getDistance >
+	 * threshold.
+	 */
+	static void checkBoundedLevenshtein(Random random) {
+		LevensteinDistance reference = new LevensteinDistance();
+		double[] thresholds = {0.0, 0.5, 0.8, 0.9, 0.99};
+		for (double threshold : thresholds) {
+			BoundedLevenshtein ld = new BoundedLevenshtein(threshold);
+			for (int i = 0; i < 100000; i++) {
+				String s = randomString(random);
+				String t = random.nextInt(4) == 0 ? s : mutate(s, random);
+				boolean expected = reference.getDistance(s, t) > threshold;
+				if (ld.matches(s, t) != expected)
+					fail("BoundedLevenshtein(" + threshold + ")", s, t, expected,
+							ld.matches(s, t));
+			}
+		}
+		System.out.println("BoundedLevenshtein checked");
+	}
+
+	/**
+	 * A similarity against the Lucene distance it replaces, which must return
+	 * the very same float.
+	 */
+	static void checkStringSimilarity(String name, StringSimilarity similarity,
+			StringDistance reference, Random random) {
+		for (int i = 0; i < 100000; i++) {
+			String s = randomString(random);
+			String t = random.nextInt(4) == 0 ? s : random.nextBoolean() ? mutate(s,
+					random) : randomString(random);
+			float expected = reference.getDistance(s, t);
+			float actual = (float) similarity.similarity(s, t);
+			if (Float.floatToIntBits(actual) != Float.floatToIntBits(expected))
+				fail(name, s, t, expected, actual);
+		}
+		System.out.println(name + " checked");
+	}
+
+	/**
+	 * SetSimilarities.jaccard of id arrays and of packed bitsets against
+	 * counting with hash sets.
+	 */
+	static void checkJaccard(Random random) {
+		TokenDictionary dictionary = new TokenDictionary();
+		for (int i = 0; i < 100000; i++) {
+			Set<String> a = randomSet(random);
+			Set<String> b = randomSet(random);
+			double expected = jaccard(a, b);
+			int[] aIds = dictionary.ids(a);
+			int[] bIds = dictionary.ids(b);
+			double ids = SetSimilarities.jaccard(aIds, bIds);
+			if (ids != expected)
+				fail("jaccard(int[], int[])", a, b, expected, ids);
+			double bits = SetSimilarities.jaccard(bitSet(aIds), bitSet(bIds));
+			if (bits != expected)
+				fail("jaccard(BitSet, BitSet)", a, b, expected, bits);
+		}
+		System.out.println("jaccard checked");
+	}
+
+	/**
+	 * SetSimilarityJoin against scoring every pair: the same pairs, in the same
+	 * order, with the same similarities.
+	 */
+	static void checkSetSimilarityJoin(Random random) {
+		double[] thresholds = {0.1, 0.3, 0.5, 0.8, 1.0};
+		for (int round = 0; round < 50; round++) {
+			List<Set<String>> a = new ArrayList<>();
+			List<Set<String>> b = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				a.add(randomSet(random));
+				b.add(randomSet(random));
+			}
+			for (double threshold : thresholds) {
+				List<MatchingIndices> expected = new ArrayList<>();
+				for (int i = 0; i < a.size(); i++) {
+					for (int j = 0; j < b.size(); j++) {
+						double sim = jaccard(a.get(i), b.get(j));
+						if (!a.get(i).isEmpty() && sim >= threshold)
+							expected.add(new MatchingIndices(i, j, sim));
+					}
+				}
+				List<MatchingIndices> actual = new SetSimilarityJoin(threshold).join(a, b);
+				boolean same = actual.size() == expected.size();
+				for (int k = 0; same && k < actual.size(); k++) {
+					MatchingIndices x = expected.get(k);
+					MatchingIndices y = actual.get(k);
+					same = x.a == y.a && x.b == y.b && x.c == y.c;
+				}
+				if (!same)
+					fail("SetSimilarityJoin(" + threshold + ")", "round " + round, "",
+							expected.size() + " pairs", actual.size() + " pairs");
+			}
+		}
+		System.out.println("SetSimilarityJoin checked");
+	}
+
+	/**
+	 * BoundedSimilarity.upperBound never below similarity, on single words and
+	 * on phrases, with weights that differ between words.
+	 */
+	static void checkUpperBounds(Random random) {
+		MatchTools tools = new MatchTools(WORD_WEIGHTS);
+		List<BoundedSimilarity> bounded = new ArrayList<>();
+		for (int n = 1; n <= 4; n++) {
+			bounded.add(new StringSimilarities.NGram(n));
+		}
+		for (StringSimilarity matcher : allMatchers(tools)) {
+			if (matcher instanceof BoundedSimilarity)
+				bounded.add((BoundedSimilarity) matcher);
+		}
+		for (int i = 0; i < 20000; i++) {
+			String s = random.nextBoolean() ? randomString(random) : randomPhrase(random);
+			String t = random.nextInt(4) == 0 ? s : random.nextBoolean() ? mutate(s,
+					random) : randomPhrase(random);
+			PreparedString[] prepared = tools.prepare(new String[] {s, t});
+			for (BoundedSimilarity matcher : bounded) {
+				double bound = matcher.upperBound(prepared[0], prepared[1]);
+				double similarity = matcher.similarity(prepared[0], prepared[1]);
+				if (bound < similarity)
+					fail(matcher.getClass().getSimpleName() + ".upperBound", s, t,
+							">= " + similarity, bound);
+			}
+		}
+		System.out.println("upperBound checked");
+	}
+
+	/**
+	 * The threshold-aware doMatch against doMatch followed by selectThreshold,
+	 * cell by cell, for random matcher lists, thresholds and storage modes.
+	 */
+	static void checkThresholdMatch(Random random) {
+		MatchTools tools = new MatchTools(WORD_WEIGHTS);
+		tools.setParallelism(1);
+		List<StringSimilarity> matchers = allMatchers(tools);
+		double[] thresholds = {0.0, 0.1, 0.13, 0.3, 0.5, 0.8, 1.0};
+		StorageMode[] modes = StorageMode.values();
+		for (int round = 0; round < 300; round++) {
+			PreparedString[][] ab = randomTables(tools, random, 30);
+			List<StringSimilarity> matcherList = new ArrayList<>();
+			for (StringSimilarity matcher : matchers) {
+				if (random.nextInt(3) == 0)
+					matcherList.add(matcher);
+			}
+			if (matcherList.isEmpty())
+				matcherList.add(matchers.get(random.nextInt(matchers.size())));
+			double threshold = thresholds[random.nextInt(thresholds.length)];
+			tools.setStorageMode(modes[random.nextInt(modes.length)]);
+
+			SimMatrix expected = tools.doMatch(ab[0], ab[1], matcherList,
+					AggregationStrategy.AGG_AVG);
+			expected.selectThreshold(threshold);
+			SimMatrix actual = tools.doMatch(ab[0], ab[1], matcherList,
+					AggregationStrategy.AGG_AVG, threshold);
+			compareCells("doMatch(threshold " + threshold + ", " + tools.getStorageMode()
+					+ ")", "round " + round, expected.getM(), actual.getM());
+		}
+		System.out.println("threshold doMatch checked");
+	}
+
+	/**
+	 * updateMatch against a fresh doMatch, cell by cell, after strings were
+	 * removed from, added to and reordered in both tables, in exact and
+	 * quantized storage.
+	 */
+	static void checkUpdateMatch(Random random) {
+		MatchTools tools = new MatchTools(WORD_WEIGHTS);
+		tools.setParallelism(1);
+		List<StringSimilarity> matchers = allMatchers(tools);
+		StorageMode[] modes = {StorageMode.DOUBLE, StorageMode.QUANTIZED_8};
+		for (int round = 0; round < 300; round++) {
+			List<StringSimilarity> matcherList = new ArrayList<>();
+			matcherList.add(matchers.get(random.nextInt(matchers.size())));
+			if (random.nextBoolean())
+				matcherList.add(matchers.get(random.nextInt(matchers.size())));
+			tools.setStorageMode(modes[round % modes.length]);
+
+			PreparedString[][] ab = randomTables(tools, random, 20);
+			SimMatrix previous = tools.doMatch(ab[0], ab[1], matcherList,
+					AggregationStrategy.AGG_AVG);
+			PreparedString[] a = tools.prepare(edit(strings(ab[0]), random));
+			PreparedString[] b = tools.prepare(edit(strings(ab[1]), random));
+			SimMatrix expected = tools.doMatch(a, b, matcherList, AggregationStrategy.AGG_AVG);
+			SimMatrix actual = tools.updateMatch(previous, a, b, matcherList,
+					AggregationStrategy.AGG_AVG);
+			compareCells("updateMatch(" + tools.getStorageMode() + ")", "round " + round,
+					expected.getM(), actual.getM());
+		}
+		System.out.println("updateMatch checked");
+	}
+
+	/**
+	 * selectMax and selectMaxDelta against the brute-force maxima of each
+	 * cell's row and column, on dense and sparse matrices, including dense
+	 * ones large enough to be selected in parallel blocks.
+	 */
+	static void checkNearMaxima(Random random) {
+		MatchTools.DEFAULT.setParallelism(4);
+		double[] deltas = {0.0, 0.05, 0.1, 0.3};
+		for (int round = 0; round < 2020; round++) {
+			// the last rounds exceed SimMatrix.PARALLEL_SELECTION_CELLS
+			boolean large = round >= 2000;
+			int rows = large ? 250 + random.nextInt(100) : 1 + random.nextInt(30);
+			int columns = large ? 270 + random.nextInt(100) : 1 + random.nextInt(30);
+			double[][] cells = randomCells(random, rows, columns);
+			double delta = deltas[random.nextInt(deltas.length)];
+			DoubleMatrix2D expected = nearMaxima(cells, delta);
+
+			SimMatrix dense = new SimMatrix(new DenseDoubleMatrix2D(cells));
+			SimMatrix sparse = new SimMatrix(new DenseDoubleMatrix2D(cells)).toSparse();
+			if (delta == 0.0) {
+				dense.selectMax();
+				sparse.selectMax();
+			} else {
+				dense.selectMaxDelta(delta);
+				sparse.selectMaxDelta(delta);
+			}
+			String input = rows + "x" + columns + " round " + round;
+			compareCells("selectMaxDelta(" + delta + ") dense", input, expected,
+					dense.getM());
+			compareCells("selectMaxDelta(" + delta + ") sparse", input, expected,
+					sparse.getM());
+		}
+		System.out.println("selectMax, selectMaxDelta checked");
+	}
+
+	/**
+	 * Mostly zeros, and values from a few steps so that rows and columns have
+	 * tied maxima, or arbitrary ones.
+	 */
+	private static double[][] randomCells(Random random, int rows, int columns) {
+		double[] steps = {0.2, 0.5, 0.7, 0.9, 1.0};
+		double density = random.nextDouble();
+		double[][] cells = new double[rows][columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				if (random.nextDouble() < density)
+					cells[r][c] = random.nextBoolean() ? steps[random.nextInt(steps.length)]
+							: random.nextDouble();
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * The cells at least as large as the maximum of their row minus delta and
+	 * the maximum of their column minus delta, zeros included in the maxima.
+	 */
+	private static DoubleMatrix2D nearMaxima(double[][] cells, double delta) {
+		int rows = cells.length;
+		int columns = cells[0].length;
+		DoubleMatrix2D selected = new DenseDoubleMatrix2D(rows, columns);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				double rowMax = 0.0;
+				for (int j = 0; j < columns; j++) {
+					rowMax = Math.max(rowMax, cells[r][j]);
+				}
+				double columnMax = 0.0;
+				for (int i = 0; i < rows; i++) {
+					columnMax = Math.max(columnMax, cells[i][c]);
+				}
+				if (cells[r][c] >= rowMax - delta && cells[r][c] >= columnMax - delta)
+					selected.setQuick(r, c, cells[r][c]);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * topK, streaming b in random chunks, against the k largest cells of each
+	 * row of a full doMatch, of equal cells those of the lowest columns.
+	 */
+	static void checkTopK(Random random) {
+		MatchTools tools = new MatchTools(WORD_WEIGHTS);
+		tools.setParallelism(1);
+		List<StringSimilarity> matchers = allMatchers(tools);
+		List<StringSimilarity> defaults = new ArrayList<>();
+		defaults.add(tools.weightedByWordLevenshtein);
+		defaults.add(tools.ngram);
+		for (int round = 0; round < 300; round++) {
+			PreparedString[][] ab = randomTables(tools, random, 30);
+			// repeated strings of b tie in every row
+			PreparedString[] b = new PreparedString[ab[1].length + random.nextInt(10)];
+			for (int j = 0; j < b.length; j++) {
+				b[j] = j < ab[1].length ? ab[1][j] : ab[1][random.nextInt(ab[1].length)];
+			}
+			Collections.shuffle(Arrays.asList(b), random);
+			List<PreparedString[]> chunks = new ArrayList<>();
+			for (int from = 0; from < b.length;) {
+				int to = Math.min(b.length, from + random.nextInt(8));
+				chunks.add(Arrays.copyOfRange(b, from, to));
+				from = to;
+			}
+			int k = 1 + random.nextInt(5);
+
+			List<StringSimilarity> matcherList = defaults;
+			SimMatrix actual;
+			if (random.nextBoolean()) {
+				actual = tools.topK(ab[0], chunks.iterator(), k);
+			} else {
+				matcherList = new ArrayList<>();
+				matcherList.add(matchers.get(random.nextInt(matchers.size())));
+				if (random.nextBoolean())
+					matcherList.add(matchers.get(random.nextInt(matchers.size())));
+				actual = tools.topK(ab[0], chunks.iterator(), matcherList,
+						AggregationStrategy.AGG_AVG, k);
+			}
+			SimMatrix full = tools.doMatch(ab[0], b, matcherList,
+					AggregationStrategy.AGG_AVG);
+			compareCells("topK(" + k + ")", "round " + round, largest(full.getM(), k),
+					actual.getM());
+		}
+		System.out.println("topK checked");
+	}
+
+	/**
+	 * The k largest positive cells of every row of m, of equal ones those of the
+	 * lowest columns.
+	 */
+	private static DoubleMatrix2D largest(final DoubleMatrix2D m, int k) {
+		DoubleMatrix2D selected = new DenseDoubleMatrix2D(m.rows(), m.columns());
+		for (int r = 0; r < m.rows(); r++) {
+			final int row = r;
+			List<Integer> columns = new ArrayList<>();
+			for (int c = 0; c < m.columns(); c++) {
+				if (m.getQuick(r, c) > 0.0)
+					columns.add(c);
+			}
+			Collections.sort(columns, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer c1, Integer c2) {
+					int bySimilarity = Double.compare(m.getQuick(row, c2), m.getQuick(row, c1));
+					return bySimilarity != 0 ? bySimilarity : c1.compareTo(c2);
+				}
+			});
+			for (int c : columns.subList(0, Math.min(k, columns.size()))) {
+				selected.setQuick(r, c, m.getQuick(r, c));
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * getStatistics against the dense formulas it replaced, on dense, compact
+	 * and sparse matrices, with and without labels.
+	 */
+	static void checkStatistics(Random random) {
+		int[] binCounts = {1, 3, 10, 100};
+		for (int round = 0; round < 3000; round++) {
+			int rows = 1 + random.nextInt(30);
+			int columns = 1 + random.nextInt(30);
+			int bins = binCounts[random.nextInt(binCounts.length)];
+			double[][] cells = randomCells(random, rows, columns);
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < columns; c++) {
+					// bin boundaries, and a few negative cells
+					if (cells[r][c] != 0.0 && random.nextInt(4) == 0)
+						cells[r][c] = random.nextInt(bins + 1) / (double) bins;
+					else if (random.nextInt(50) == 0)
+						cells[r][c] = -random.nextDouble();
+				}
+			}
+			DoubleMatrix2D m;
+			switch (round % 3) {
+			case 0:
+				m = new DenseDoubleMatrix2D(cells);
+				break;
+			case 1:
+				m = StorageMode.FLOAT.make(rows, columns).assign(cells);
+				break;
+			default:
+				m = new SimMatrix(new DenseDoubleMatrix2D(cells)).toSparse().getM();
+			}
+			String[] a = null;
+			String[] b = null;
+			if (random.nextBoolean()) {
+				a = new String[rows + random.nextInt(3)];
+				b = new String[columns + random.nextInt(3)];
+			}
+			MappingStatistics actual = new SimMatrix(m, a, b).getStatistics(bins);
+			String input = rows + "x" + columns + " " + m.getClass().getSimpleName()
+					+ " round " + round;
+
+			int nonZeros = 0;
+			BitSet matchedRows = new BitSet();
+			BitSet matchedColumns = new BitSet();
+			long[] histogram = new long[bins];
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < columns; c++) {
+					double v = m.getQuick(r, c);
+					if (v != 0.0) {
+						nonZeros++;
+						matchedRows.set(r);
+						matchedColumns.set(c);
+					}
+					if (v > 0.0)
+						histogram[bin(v, bins)]++;
+				}
+			}
+			double coverageA = matchedRows.cardinality() / (double) (a != null ? a.length : rows);
+			double coverageB = matchedColumns.cardinality()
+					/ (double) (b != null ? b.length : columns);
+			double monogamy = monogamy(m);
+			if (actual.nonZeros != nonZeros)
+				fail("getStatistics nonZeros", input, "", nonZeros, actual.nonZeros);
+			if (actual.coverageA != coverageA)
+				fail("getStatistics coverageA", input, "", coverageA, actual.coverageA);
+			if (actual.coverageB != coverageB)
+				fail("getStatistics coverageB", input, "", coverageB, actual.coverageB);
+			if (!(Math.abs(actual.monogamy - monogamy) <= 1e-12 * Math.max(1.0, Math.abs(monogamy))))
+				fail("getStatistics monogamy", input, "", monogamy, actual.monogamy);
+			if (!Arrays.equals(actual.histogram, histogram))
+				fail("getStatistics histogram", input, bins + " bins",
+						Arrays.toString(histogram), Arrays.toString(actual.histogram));
+		}
+		System.out.println("getStatistics checked");
+	}
+
+	/**
+	 * The bin of v in bins equally wide bins over (0, 1], bounded by i / bins,
+	 * values from 1 on in the last one.
+	 */
+	private static int bin(double v, int bins) {
+		int bin = 0;
+		while (bin + 1 < bins && v >= (bin + 1) / (double) bins) {
+			bin++;
+		}
+		return bin;
+	}
+
+	/**
+	 * Monogamy as it was computed before getStatistics: every cell divided by
+	 * its partner count, the positive cells of its row and column counting
+	 * itself once for positive cells and 1 for the others, summed over the
+	 * longer side and averaged.
+	 */
+	private static double monogamy(DoubleMatrix2D m) {
+		int[] rowPositives = new int[m.rows()];
+		int[] columnPositives = new int[m.columns()];
+		for (int r = 0; r < m.rows(); r++) {
+			for (int c = 0; c < m.columns(); c++) {
+				if (m.getQuick(r, c) > 0.0) {
+					rowPositives[r]++;
+					columnPositives[c]++;
+				}
+			}
+		}
+		double sum = 0.0;
+		for (int r = 0; r < m.rows(); r++) {
+			for (int c = 0; c < m.columns(); c++) {
+				double v = m.getQuick(r, c);
+				sum += v > 0.0 ? v / (rowPositives[r] + columnPositives[c] - 1.0) : v;
+			}
+		}
+		return sum / Math.max(m.rows(), m.columns());
+	}
+
+	/**
+	 * MatchService results against the synchronous calls, and the release of
+	 * the memory budget by cancelled jobs, running or queued. Jobs are ordered
+	 * with latches, so the outcome does not depend on timing.
+	 */
+	static void checkMatchService(Random random) throws Exception {
+		final MatchTools tools = new MatchTools(WORD_WEIGHTS);
+		tools.setParallelism(1);
+		List<StringSimilarity> defaults = new ArrayList<>();
+		defaults.add(tools.weightedByWordLevenshtein);
+		defaults.add(tools.ngram);
+
+		MatchService service = new MatchService(tools, 2, 1, 1L << 30);
+		List<String[][]> tables = new ArrayList<>();
+		List<Future<List<Match>>> mappings = new ArrayList<>();
+		List<Future<SimMatrix>> matches = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			PreparedString[][] ab = randomTables(tools, random, 40);
+			String[][] table = {strings(ab[0]), strings(ab[1])};
+			tables.add(table);
+			mappings.add(service.defaultMapping(table[0], table[1]));
+			matches.add(service.doMatch(table[0], table[1]));
+		}
+		for (int i = 0; i < tables.size(); i++) {
+			String[][] table = tables.get(i);
+			String input = table[0].length + "x" + table[1].length + " job " + i;
+			List<Match> expected = tools.defaultMapping(table[0], table[1]);
+			List<Match> actual = mappings.get(i).get(10, TimeUnit.SECONDS);
+			if (!matches(expected, actual))
+				fail("MatchService.defaultMapping", input, "", expected.size() + " matches",
+						actual.size() + " matches");
+			compareCells("MatchService.doMatch", input, tools.doMatch(table[0], table[1],
+					defaults, AggregationStrategy.AGG_AVG).getM(),
+					matches.get(i).get(10, TimeUnit.SECONDS).getM());
+		}
+		service.shutdown();
+
+		// the small lane's budget fits the blocked job and nothing else
+		final int size = 100;
+		long jobBytes = (long) size * size * tools.getStorageMode().bytesPerCell();
+		service = new MatchService(tools, 1, 1, 4 * jobBytes);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		StringSimilarity blocking = new StringSimilarity() {
+			@Override
+			public double similarity(String a, String b) {
+				if (calls.getAndIncrement() == 0) {
+					started.countDown();
+					Uninterruptibles.awaitUninterruptibly(proceed);
+				}
+				return 0.5;
+			}
+
+			@Override
+			public double similarity(PreparedString a, PreparedString b) {
+				return similarity(a.string, b.string);
+			}
+		};
+		String[] a = new String[size];
+		for (int i = 0; i < size; i++) {
+			a[i] = randomPhrase(random);
+		}
+		String[] small = Arrays.copyOf(a, 10);
+		Future<SimMatrix> running = service.doMatch(a, a,
+				Collections.singletonList(blocking), AggregationStrategy.AGG_AVG);
+		Uninterruptibles.awaitUninterruptibly(started);
+		Future<SimMatrix> waiting = service.doMatch(small, small);
+		Future<SimMatrix> dropped = service.doMatch(small, small);
+		if (service.getMemoryInUse() != jobBytes)
+			fail("MatchService.getMemoryInUse", "running job", "", jobBytes,
+					service.getMemoryInUse());
+		dropped.cancel(false);
+		running.cancel(false);
+		proceed.countDown();
+		compareCells("MatchService after cancel", "waiting job", tools.doMatch(small,
+				small, defaults, AggregationStrategy.AGG_AVG).getM(),
+				waiting.get(10, TimeUnit.SECONDS).getM());
+		// the release follows the completion of the future
+		for (int i = 0; i < 1000 && service.getMemoryInUse() != 0; i++) {
+			Thread.sleep(10);
+		}
+		if (service.getMemoryInUse() != 0)
+			fail("MatchService cancel", "running job", "", 0, service.getMemoryInUse());
+		// the cancel flag stops the running job after its first tile
+		if (calls.get() >= size * size)
+			fail("MatchService cancel", "running job", "", "< " + size * size + " cells",
+					calls.get());
+		service.shutdown();
+
+		// only the cancel flag of a service job stops a match, not interrupts
+		Thread.currentThread().interrupt();
+		try {
+			tools.doMatch(small, small, defaults, AggregationStrategy.AGG_AVG);
+		} catch (CancellationException e) {
+			fail("doMatch", "interrupted thread", "", "a match", e);
+		} finally {
+			Thread.interrupted();
+		}
+		System.out.println("MatchService checked");
+	}
+
+	private static boolean matches(List<Match> expected, List<Match> actual) {
+		if (expected.size() != actual.size())
+			return false;
+		for (int i = 0; i < expected.size(); i++) {
+			Match x = expected.get(i);
+			Match y = actual.get(i);
+			if (!x.a.equals(y.a) || !x.b.equals(y.b) || x.c != y.c)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * strings without some of them, with some new ones and some repeated, in
+	 * random order.
+	 */
+	private static String[] edit(String[] strings, Random random) {
+		List<String> edited = new ArrayList<>();
+		for (String s : strings) {
+			if (random.nextInt(4) != 0)
+				edited.add(s);
+		}
+		int added = random.nextInt(6);
+		for (int i = 0; i < added; i++) {
+			edited.add(random.nextBoolean() || edited.isEmpty() ? randomPhrase(random)
+					: edited.get(random.nextInt(edited.size())));
+		}
+		if (edited.isEmpty())
+			edited.add(randomPhrase(random));
+		Collections.shuffle(edited, random);
+		return edited.toArray(new String[edited.size()]);
+	}
+
+	private static String[] strings(PreparedString[] prepared) {
+		String[] strings = new String[prepared.length];
+		for (int i = 0; i < prepared.length; i++) {
+			strings[i] = prepared[i].string;
+		}
+		return strings;
+	}
+
+	/**
+	 * All matchers of tools that are set.
+	 */
+	private static List<StringSimilarity> allMatchers(MatchTools tools) {
+		List<StringSimilarity> matchers = new ArrayList<>();
+		for (StringSimilarity matcher : new StringSimilarity[] {tools.levenshtein,
+				tools.byWordLevenshtein, tools.weightedByWordLevenshtein, tools.ngram,
+				tools.ngramDice, tools.jaro, tools.aFocusedByWordLevenshtein,
+				tools.weightedByWordAndPositionLevenshtein,
+				tools.fastWeightedByWordLevenshtein}) {
+			if (matcher != null)
+				matchers.add(matcher);
+		}
+		return matchers;
+	}
+
+	/**
+	 * Two prepared tables of up to size phrases each, the second partly made of
+	 * mutated phrases of the first, so that many pairs are similar.
+	 */
+	static PreparedString[][] randomTables(MatchTools tools, Random random, int size) {
+		String[] a = new String[1 + random.nextInt(size)];
+		String[] b = new String[1 + random.nextInt(size)];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = randomPhrase(random);
+		}
+		for (int j = 0; j < b.length; j++) {
+			b[j] = random.nextBoolean() ? mutate(a[random.nextInt(a.length)], random)
+					: randomPhrase(random);
+		}
+		return new PreparedString[][] {tools.prepare(a), tools.prepare(b)};
+	}
+
+	/**
+	 * Compares two matrices cell by cell, requiring equal values.
+	 */
+	static void compareCells(String check, Object input, DoubleMatrix2D expected,
+			DoubleMatrix2D actual) {
+		if (expected.rows() != actual.rows() || expected.columns() != actual.columns()) {
+			fail(check, input, "", expected.rows() + "x" + expected.columns(),
+					actual.rows() + "x" + actual.columns());
+			return;
+		}
+		for (int r = 0; r < expected.rows(); r++) {
+			for (int c = 0; c < expected.columns(); c++) {
+				double x = expected.getQuick(r, c);
+				double y = actual.getQuick(r, c);
+				if (Double.doubleToLongBits(x) != Double.doubleToLongBits(y)) {
+					fail(check, input, "cell " + r + "," + c, x, y);
+					return;
+				}
+			}
+		}
+	}
+
+	private static double jaccard(Set<String> a, Set<String> b) {
+		Set<String> union = new HashSet<>(a);
+		union.addAll(b);
+		Set<String> common = new HashSet<>(a);
+		common.retainAll(b);
+		return union.isEmpty() ? 0.0 : (double) common.size() / union.size();
+	}
+
+	/**
+	 * 0 to 30 values drawn with skewed frequencies from 500 values, like the
+	 * values of a table column.
+	 */
+	static Set<String> randomSet(Random random) {
+		int size = random.nextInt(31);
+		Set<String> set = new HashSet<>();
+		for (int i = 0; i < size; i++) {
+			set.add("v" + (int) (500 * Math.pow(random.nextDouble(), 3)));
+		}
+		return set;
+	}
+
+	private static BitSet bitSet(int[] ids) {
+		BitSet bits = new BitSet();
+		for (int id : ids) {
+			bits.set(id);
+		}
+		return bits;
+	}
+
+	/**
+	 * SimMatrix.selectOptimalAssignment against enumerating all 1:1 selections
+	 * of small sparse matrices. Ties may be broken differently, so the totals
+	 * are compared, and the selection must be 1:1 and keep its cells' values.
+	 */
+	static void checkOptimalAssignment(Random random) {
+		for (int i = 0; i < 20000; i++) {
+			int rows = 1 + random.nextInt(6);
+			int columns = 1 + random.nextInt(6);
+			double density = random.nextDouble();
+			DoubleMatrix2D scores = new DenseDoubleMatrix2D(rows, columns);
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < columns; c++) {
+					if (random.nextDouble() < density)
+						// few distinct values, so that ties occur
+						scores.setQuick(r, c, random.nextInt(4) == 0 ? 0.5
+								: 0.01 + random.nextDouble());
+				}
+			}
+			double expected = bestAssignment(scores, 0, new boolean[columns]);
+
+			SimMatrix m = new SimMatrix(scores.copy());
+			if (random.nextBoolean())
+				m.toSparse();
+			m.selectOptimalAssignment();
+			DoubleMatrix2D selected = m.getM();
+			double total = 0.0;
+			boolean valid = true;
+			int[] perColumn = new int[columns];
+			for (int r = 0; r < rows; r++) {
+				int perRow = 0;
+				for (int c = 0; c < columns; c++) {
+					double v = selected.getQuick(r, c);
+					if (v != 0.0) {
+						valid &= v == scores.getQuick(r, c);
+						perRow++;
+						perColumn[c]++;
+						total += v;
+					}
+				}
+				valid &= perRow <= 1;
+			}
+			for (int count : perColumn) {
+				valid &= count <= 1;
+			}
+			if (!valid || Math.abs(total - expected) > 1e-9)
+				fail("selectOptimalAssignment", scores, valid ? "1:1" : "not 1:1",
+						expected, total);
+		}
+		System.out.println("selectOptimalAssignment checked");
+	}
+
+	/**
+	 * The largest total of a 1:1 selection of the nonzero cells of rows row and
+	 * below, with the columns in used taken.
+	 */
+	private static double bestAssignment(DoubleMatrix2D scores, int row, boolean[] used) {
+		if (row == scores.rows())
+			return 0.0;
+		double best = bestAssignment(scores, row + 1, used);
+		for (int c = 0; c < scores.columns(); c++) {
+			double v = scores.getQuick(row, c);
+			if (v != 0.0 && !used[c]) {
+				used[c] = true;
+				best = Math.max(best, v + bestAssignment(scores, row + 1, used));
+				used[c] = false;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A string of 0 to 20, sometimes up to 200 characters from a small
+	 * alphabet, with occasional non-ASCII characters and NULs.
+	 */
+	static String randomString(Random random) {
+		int length = random.nextInt(10) == 0 ? random.nextInt(200) : random.nextInt(21);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(randomChar(random));
+		}
+		return sb.toString();
+	}
+
+	static char randomChar(Random random) {
+		switch (random.nextInt(20)) {
+		case 0:
+			return (char) (0x100 + random.nextInt(0x2000));
+		case 1:
+			return 0;
+		default:
+			return (char) ('a' + random.nextInt(6));
+		}
+	}
+
+	/**
+	 * 1 to 4 random strings joined by spaces.
+	 */
+	static String randomPhrase(Random random) {
+		int words = 1 + random.nextInt(4);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(randomWord(random));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 1 to 8 characters, mostly from a small alphabet, so that words repeat.
+	 */
+	static String randomWord(Random random) {
+		int length = 1 + random.nextInt(8);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(randomChar(random));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * s with a few random insertions, deletions and substitutions.
+	 */
+	static String mutate(String s, Random random) {
+		StringBuilder sb = new StringBuilder(s);
+		int edits = random.nextInt(4);
+		for (int e = 0; e < edits; e++) {
+			int pos = random.nextInt(sb.length() + 1);
+			switch (random.nextInt(3)) {
+			case 0:
+				sb.insert(pos, randomChar(random));
+				break;
+			case 1:
+				if (pos < sb.length())
+					sb.deleteCharAt(pos);
+				break;
+			default:
+				if (pos < sb.length())
+					sb.setCharAt(pos, randomChar(random));
+			}
+		}
+		return sb.toString();
+	}
+
+	static void fail(String check, Object input1, Object input2, Object expected,
+			Object actual) {
+		failures++;
+		if (reported++ < MAX_REPORTED)
+			System.out.println(check + " mismatch for '" + input1 + "', '" + input2
+					+ "': expected " + expected + ", got " + actual);
+	}
+}
@@ -0,0 +1,92 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import de.tudresden.matchtools.SimMatrix;
+import de.tudresden.matchtools.StorageMode;
+
+/**
+ * The SimMatrix selection operators on a size x size matrix whose scores are
+ * skewed towards zero like real similarity matrices, stored in each
+ * StorageMode. Every invocation works on a fresh copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SelectionBenchmark {
+
+	@Param({"500", "2000"})
+	public int size;
+
+	@Param({"DOUBLE", "FLOAT", "QUANTIZED_8"})
+	public StorageMode storage;
+
+	private DoubleMatrix2D scores;
+	private SimMatrix m;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(1);
+		scores = storage.make(size, size);
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				scores.setQuick(i, j, Math.pow(random.nextDouble(), 4));
+			}
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		m = new SimMatrix(scores.copy());
+	}
+
+	@Benchmark
+	public SimMatrix selectThreshold() {
+		m.selectThreshold(0.13);
+		return m;
+	}
+
+	@Benchmark
+	public SimMatrix selectMax() {
+		m.selectMax();
+		return m;
+	}
+
+	@Benchmark
+	public SimMatrix selectMaxDelta() {
+		m.selectMaxDelta();
+		return m;
+	}
+
+	@Benchmark
+	public SimMatrix selectBipartiteGreedy() {
+		m.selectBipartiteGreedy();
+		return m;
+	}
+
+	@Benchmark
+	public SimMatrix selectThresholdOptimalAssignment() {
+		m.setCompactSelections(true);
+		m.selectThreshold(0.13);
+		m.selectOptimalAssignment();
+		return m;
+	}
+}
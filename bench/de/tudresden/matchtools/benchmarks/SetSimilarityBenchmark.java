@@ -0,0 +1,110 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tudresden.matchtools.datastructures.MinHashSketch;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+import de.tudresden.matchtools.similarities.SetSimilarities;
+import de.tudresden.matchtools.similarities.SetSimilarity;
+
+/**
+ * Jaccard similarity of two column value sets with half of their values in
+ * common: on boxed sets, on sorted id arrays, on bitsets and estimated from
+ * MinHash sketches of 128 hashes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetSimilarityBenchmark {
+
+	@Param({"10", "1000", "100000"})
+	public int size;
+
+	private Set<String> a;
+	private Set<String> b;
+	private SetSimilarity<String> jaccard = new SetSimilarities.Jaccard<>();
+	private SetSimilarity<String> googleJaccard = new SetSimilarities.GoogleJaccard<>();
+	private int[] aIds;
+	private int[] bIds;
+	private long[] aBits;
+	private long[] bBits;
+	private MinHashSketch aSketch;
+	private MinHashSketch bSketch;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		a = new HashSet<>();
+		b = new HashSet<>();
+		while (a.size() < size) {
+			a.add("v" + random.nextInt(4 * size));
+		}
+		for (String s : a) {
+			if (b.size() < size / 2)
+				b.add(s);
+		}
+		while (b.size() < size) {
+			b.add("w" + random.nextInt(4 * size));
+		}
+
+		TokenDictionary dictionary = new TokenDictionary();
+		aIds = dictionary.ids(a);
+		bIds = dictionary.ids(b);
+		aBits = bits(aIds);
+		bBits = bits(bIds);
+		aSketch = new MinHashSketch(128, a);
+		bSketch = new MinHashSketch(128, b);
+	}
+
+	private static long[] bits(int[] ids) {
+		BitSet bits = new BitSet();
+		for (int id : ids) {
+			bits.set(id);
+		}
+		return bits.toLongArray();
+	}
+
+	@Benchmark
+	public double jaccard() {
+		return jaccard.similarity(a, b);
+	}
+
+	@Benchmark
+	public double googleJaccard() {
+		return googleJaccard.similarity(a, b);
+	}
+
+	@Benchmark
+	public double sortedIdsJaccard() {
+		return SetSimilarities.jaccard(aIds, bIds);
+	}
+
+	@Benchmark
+	public double bitSetJaccard() {
+		return SetSimilarities.jaccard(aBits, bBits);
+	}
+
+	@Benchmark
+	public double minHashJaccard() {
+		return aSketch.jaccard(bSketch);
+	}
+}
@@ -0,0 +1,72 @@
+package de.tudresden.matchtools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tudresden.matchtools.MatchTools;
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+import de.tudresden.matchtools.weights.Weighter;
+
+/**
+ * Throughput of single similarity computations, for the String and the
+ * PreparedString overloads. Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringSimilarityBenchmark {
+	private static final int SIZE = 1024;
+
+	@Param({"levenshtein", "byWordLevenshtein", "weightedByWordLevenshtein",
+			"ngram", "ngramDice", "jaro", "aFocusedByWordLevenshtein",
+			"weightedByWordAndPositionLevenshtein"})
+	public String similarity;
+
+	@Param({"headers", "values"})
+	public String corpus;
+
+	private StringSimilarity sim;
+	private String[] a;
+	private String[] b;
+	private PreparedString[] preparedA;
+	private PreparedString[] preparedB;
+	private int i;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		MatchTools tools = new MatchTools(new Weighter());
+		tools.setNGramProfileSize(2);
+		sim = (StringSimilarity) MatchTools.class.getField(similarity).get(tools);
+		a = Corpora.generate(corpus, SIZE, 1);
+		b = Corpora.generate(corpus, SIZE, 2);
+		preparedA = tools.prepare(a);
+		preparedB = tools.prepare(b);
+	}
+
+	@Benchmark
+	public double strings() {
+		int k = i++ & (SIZE - 1);
+		return sim.similarity(a[k], b[k]);
+	}
+
+	@Benchmark
+	public double prepared() {
+		int k = i++ & (SIZE - 1);
+		return sim.similarity(preparedA[k], preparedB[k]);
+	}
+}
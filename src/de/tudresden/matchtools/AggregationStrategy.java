@@ -1,5 +1,17 @@
 package de.tudresden.matchtools;
 
 public enum AggregationStrategy {
-	AGG_AVG;
+	AGG_AVG {
+		@Override
+		public double aggregate(double aggregate, double sim) {
+			return (aggregate + sim) / 2.0;
+		}
+	};
+
+	/**
+	 * Folds the similarity of the next matcher into the aggregate of the
+	 * matchers before it, cell by cell, like the corresponding SimMatrix
+	 * aggregation does for whole matrices.
+	 */
+	public abstract double aggregate(double aggregate, double sim);
 }
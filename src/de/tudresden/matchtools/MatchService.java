@@ -0,0 +1,321 @@
+package de.tudresden.matchtools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tudresden.matchtools.datastructures.Match;
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+
+/**
+ * Runs match jobs of a shared MatchTools asynchronously, with bounded
+ * resources. Jobs of more than largeJobCells cells go to the large lane, all
+ * others to the small lane; each lane has its own executor and its own share
+ * of the memory budget, so a burst of huge jobs never delays small ones.
+ *
+ * Within a lane, jobs are admitted in submission order once the memory their
+ * matrix takes (cells times the bytes per cell of the storage mode) fits into
+ * the lane's budget, and only then handed to the lane's executor, so jobs
+ * waiting for memory never occupy its threads. A job larger than the whole
+ * budget runs when its lane is otherwise idle. At most maxQueued jobs per lane
+ * may be queued or running; further submissions block the caller until one
+ * completes.
+ *
+ * Cancelling a future drops its job if it has not started yet, and otherwise
+ * stops it after the current tile; its memory is released once it has
+ * stopped. Since the lanes run jobs concurrently, the MatchTools should have a
+ * parallelism of 1.
+ */
+public class MatchService {
+
+	public static final long DEFAULT_LARGE_JOB_CELLS = 1 << 20;
+	public static final int DEFAULT_MAX_QUEUED = 1000;
+	/** share of the memory budget reserved for the large lane */
+	public static final double LARGE_SHARE = 0.75;
+
+	/**
+	 * A submitted job and the memory its matrix takes.
+	 */
+	protected static class Job {
+		final ListenableFutureTask<?> task;
+		final long bytes;
+
+		Job(ListenableFutureTask<?> task, long bytes) {
+			this.task = task;
+			this.bytes = bytes;
+		}
+	}
+
+	protected class Lane {
+		protected final ExecutorService executor;
+		protected final Semaphore slots;
+		protected final long budget;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+		private long inUse;
+		/** whether this service created executor, and must shut it down */
+		private boolean ownExecutor;
+		private boolean shutdown;
+
+		Lane(ExecutorService executor, int maxQueued, long budget) {
+			this.executor = executor;
+			this.slots = new Semaphore(maxQueued, true);
+			this.budget = budget;
+		}
+
+		/**
+		 * Queues job behind all jobs submitted before and starts what fits.
+		 */
+		void enqueue(Job job) {
+			lock.lock();
+			try {
+				if (shutdown)
+					throw new RejectedExecutionException("match service shut down");
+				waiting.add(job);
+			} finally {
+				lock.unlock();
+			}
+			dispatch();
+		}
+
+		void release(long bytes) {
+			lock.lock();
+			try {
+				inUse -= bytes;
+			} finally {
+				lock.unlock();
+			}
+			dispatch();
+		}
+
+		/**
+		 * Hands the jobs at the head of the queue to the executor as long as they
+		 * fit into the budget, dropping cancelled ones. Once shut down, the own
+		 * executor is shut down when the queue is empty.
+		 */
+		void dispatch() {
+			List<Job> admitted = new ArrayList<>();
+			boolean drained;
+			lock.lock();
+			try {
+				while (!waiting.isEmpty()) {
+					Job job = waiting.peek();
+					if (!job.task.isCancelled()) {
+						if (inUse > 0 && inUse + job.bytes > budget)
+							break;
+						inUse += job.bytes;
+						admitted.add(job);
+					}
+					waiting.remove();
+				}
+				drained = shutdown && waiting.isEmpty();
+			} finally {
+				lock.unlock();
+			}
+			for (Job job : admitted) {
+				start(job);
+			}
+			if (drained && ownExecutor)
+				executor.shutdown();
+		}
+
+		private void start(final Job job) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							// returns at once if the job was cancelled meanwhile
+							job.task.run();
+						} finally {
+							release(job.bytes);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// an executor of the caller was shut down
+				job.task.cancel(false);
+				release(job.bytes);
+			}
+		}
+
+		void shutdown() {
+			lock.lock();
+			try {
+				shutdown = true;
+			} finally {
+				lock.unlock();
+			}
+			dispatch();
+		}
+
+		long inUse() {
+			lock.lock();
+			try {
+				return inUse;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	protected final MatchTools tools;
+	protected final Lane small;
+	protected final Lane large;
+	protected final long largeJobCells;
+
+	/**
+	 * Creates the lanes with smallThreads and largeThreads daemon threads and
+	 * a budget of memoryBudget bytes for the matrices of running jobs.
+	 */
+	public MatchService(MatchTools tools, int smallThreads, int largeThreads,
+			long memoryBudget) {
+		this(tools, newExecutor("match-small-%d", smallThreads), newExecutor(
+				"match-large-%d", largeThreads), memoryBudget, DEFAULT_LARGE_JOB_CELLS,
+				DEFAULT_MAX_QUEUED);
+		small.ownExecutor = true;
+		large.ownExecutor = true;
+	}
+
+	/**
+	 * Runs the lanes on the given executors, e.g. virtual-thread executors on
+	 * newer JDKs, which the caller remains responsible for shutting down. The
+	 * budget bounds the memory of running jobs regardless of the number of
+	 * threads.
+	 */
+	public MatchService(MatchTools tools, ExecutorService smallExecutor,
+			ExecutorService largeExecutor, long memoryBudget, long largeJobCells,
+			int maxQueued) {
+		super();
+		if (memoryBudget < 2)
+			throw new IllegalArgumentException("memoryBudget too small: " + memoryBudget);
+		if (maxQueued < 1)
+			throw new IllegalArgumentException("maxQueued must be positive: " + maxQueued);
+		this.tools = tools;
+		long largeBudget = (long) (memoryBudget * LARGE_SHARE);
+		this.small = new Lane(smallExecutor, maxQueued, memoryBudget - largeBudget);
+		this.large = new Lane(largeExecutor, maxQueued, largeBudget);
+		this.largeJobCells = largeJobCells;
+	}
+
+	private static ExecutorService newExecutor(String nameFormat, int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+				.setDaemon(true).setNameFormat(nameFormat).build());
+	}
+
+	public ListenableFuture<SimMatrix> doMatch(final String[] a, final String[] b,
+			final List<StringSimilarity> matcherList, final AggregationStrategy aggStrategy)
+			throws InterruptedException {
+		return submit((long) a.length * b.length, new Callable<SimMatrix>() {
+			@Override
+			public SimMatrix call() {
+				return tools.doMatch(a, b, matcherList, aggStrategy);
+			}
+		});
+	}
+
+	public ListenableFuture<SimMatrix> doMatch(String[] a, String[] b)
+			throws InterruptedException {
+		return doMatch(a, b, defaultMatchers(), AggregationStrategy.AGG_AVG);
+	}
+
+	public ListenableFuture<SimMatrix> doMatch(final PreparedString[] a,
+			final PreparedString[] b, final List<StringSimilarity> matcherList,
+			final AggregationStrategy aggStrategy) throws InterruptedException {
+		return submit((long) a.length * b.length, new Callable<SimMatrix>() {
+			@Override
+			public SimMatrix call() {
+				return tools.doMatch(a, b, matcherList, aggStrategy);
+			}
+		});
+	}
+
+	/**
+	 * The mapping MatchTools.defaultMapping(a, b) computes.
+	 */
+	public ListenableFuture<List<Match>> defaultMapping(final String[] a,
+			final String[] b) throws InterruptedException {
+		return submit((long) a.length * b.length, new Callable<List<Match>>() {
+			@Override
+			public List<Match> call() {
+				return tools.defaultMapping(a, b);
+			}
+		});
+	}
+
+	/**
+	 * Queues task in the lane of its size, blocking while the lane is full.
+	 */
+	protected <T> ListenableFuture<T> submit(long cells, final Callable<T> task)
+			throws InterruptedException {
+		final Lane lane = cells > largeJobCells ? large : small;
+		long bytes = cells * tools.getStorageMode().bytesPerCell();
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		final ListenableFutureTask<T> future = ListenableFutureTask.create(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				MatchTools.JOB_CANCELLED.set(cancelled);
+				try {
+					return task.call();
+				} finally {
+					MatchTools.JOB_CANCELLED.remove();
+				}
+			}
+		});
+		lane.slots.acquire();
+		try {
+			lane.enqueue(new Job(future, bytes));
+		} catch (RejectedExecutionException e) {
+			lane.slots.release();
+			throw e;
+		}
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				lane.slots.release();
+				if (future.isCancelled()) {
+					cancelled.set(true);
+					// lets the jobs behind a cancelled one move up
+					lane.dispatch();
+				}
+			}
+		}, MoreExecutors.directExecutor());
+		return future;
+	}
+
+	protected List<StringSimilarity> defaultMatchers() {
+		List<StringSimilarity> lst = new ArrayList<>();
+		lst.add(tools.weightedByWordLevenshtein);
+		lst.add(tools.ngram);
+		return lst;
+	}
+
+	/**
+	 * Bytes taken by the matrices of running jobs.
+	 */
+	public long getMemoryInUse() {
+		return small.inUse() + large.inUse();
+	}
+
+	/**
+	 * Stops accepting jobs and shuts down the executors created by this
+	 * service once the queued jobs have been started; queued jobs still run.
+	 */
+	public void shutdown() {
+		small.shutdown();
+		large.shutdown();
+	}
+}
@@ -1,31 +1,89 @@
 package de.tudresden.matchtools;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import cern.colt.function.tdouble.IntIntDoubleFunction;
-import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.function.tdouble.DoubleFunction;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import de.tudresden.matchtools.blocking.Blocker;
+import de.tudresden.matchtools.datastructures.CandidatePairs;
 import de.tudresden.matchtools.datastructures.Match;
+import de.tudresden.matchtools.datastructures.MatchingIndices;
+import de.tudresden.matchtools.datastructures.PreparedHaystack;
 import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+import de.tudresden.matchtools.datastructures.TopKHeaps;
+import de.tudresden.matchtools.matrix.CompactDoubleMatrix2D;
+import de.tudresden.matchtools.metrics.MatchMetrics;
+import de.tudresden.matchtools.metrics.TimedSimilarity;
+import de.tudresden.matchtools.similarities.BoundedLevenshtein;
+import de.tudresden.matchtools.similarities.BoundedSimilarity;
 import de.tudresden.matchtools.similarities.StringSimilarities;
 import de.tudresden.matchtools.similarities.StringSimilarity;
 import de.tudresden.matchtools.weights.Weighter;
 
+/**
+ * Computes similarity matrices and mappings between string arrays.
+ *
+ * Instances are thread-safe and meant to be shared, e.g. DEFAULT by all request
+ * threads of a server: the matchers keep their scratch buffers per thread and
+ * their caches lock-free, the token dictionary only locks to add new words, and
+ * the settings may be changed while other threads match; a call uses the
+ * settings it reads as it proceeds. The public matcher fields must only be
+ * replaced before an instance is shared. The SimMatrix, HitMatrix and
+ * PreparedString results belong to the caller and are not thread-safe.
+ *
+ * With a parallelism above 1, each call splits its matrix over the shared
+ * pool; when many threads call at once, a parallelism of 1 computes every
+ * call in its own thread and avoids queueing on the pool. Calls run as jobs of
+ * a MatchService stop with a CancellationException once their job is
+ * cancelled; direct calls are not affected by interrupts.
+ */
 public class MatchTools {
 
-	public static MatchTools DEFAULT = new MatchTools(new Weighter());
+	public static final MatchTools DEFAULT = new MatchTools(new Weighter());
+	/** cells below this similarity are no candidates of defaultMapping */
+	protected static final double DEFAULT_MAPPING_THRESHOLD = 0.13;
+	/** words the dictionary of an instance assigns ids to at most */
+	public static final int DEFAULT_DICTIONARY_SIZE = 1 << 18;
+	/** the cancel flag of the MatchService job running in this thread, if any */
+	static final ThreadLocal<AtomicBoolean> JOB_CANCELLED = new ThreadLocal<>();
 
 	protected Weighter weighter;
+	/**
+	 * shared by all calls of prepare(String[]) and defaultMapping for the life of
+	 * the instance, hence bounded
+	 */
+	protected TokenDictionary dictionary = new TokenDictionary(DEFAULT_DICTIONARY_SIZE);
 	public StringSimilarity levenshtein;
 	public StringSimilarity byWordLevenshtein;
 	public StringSimilarity weightedByWordLevenshtein;
 	public StringSimilarity ngram;
+	public StringSimilarity ngramDice;
 	public StringSimilarity jaro;
 	public StringSimilarity aFocusedByWordLevenshtein;
 	public StringSimilarity weightedByWordAndPositionLevenshtein;
 	public StringSimilarity fastWeightedByWordLevenshtein;
 
+	protected volatile int parallelism = Runtime.getRuntime().availableProcessors();
+	protected volatile int tileSize = 64;
+	protected volatile int ngramProfileSize = 0;
+	protected volatile StorageMode storageMode = StorageMode.DOUBLE;
+	protected volatile MatchMetrics metrics = MatchMetrics.NONE;
+	protected volatile ForkJoinPool pool;
+	/** whether pool was passed to setPool, rather than created here */
+	protected boolean externalPool;
+
 	public MatchTools(Weighter weighter) {
 		this.weighter = weighter;
 		this.levenshtein = new StringSimilarities.Levenshtein();
@@ -33,65 +91,509 @@ public class MatchTools {
 		this.weightedByWordLevenshtein = new StringSimilarities.WeightedByWordLevenshtein(
 				weighter);
 		this.ngram = new StringSimilarities.NGram();
-		this.jaro = new StringSimilarities.Levenshtein();
+		this.ngramDice = new StringSimilarities.NGramDice();
+		this.jaro = new StringSimilarities.Jaro();
 		this.aFocusedByWordLevenshtein = new StringSimilarities.AFocusedByWordLevenshtein();
 		this.weightedByWordAndPositionLevenshtein = new StringSimilarities.WeightedByWordAndPositionLevenshtein(
 				weighter);
 	}
 
+	/**
+	 * Sets the number of worker threads used to compute similarity matrices
+	 * and to run the selections of the SimMatrix results on them. A parallelism
+	 * of 1 computes everything in the calling thread. The previous pool is shut
+	 * down once its running calls are done, unless it was set with setPool.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		releasePool();
+		this.parallelism = parallelism;
+		this.pool = null;
+		this.externalPool = false;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Uses an externally managed pool to compute similarity matrices, e.g. to
+	 * share one pool between several MatchTools instances.
+	 */
+	public synchronized void setPool(ForkJoinPool pool) {
+		releasePool();
+		this.pool = pool;
+		this.parallelism = pool.getParallelism();
+		this.externalPool = true;
+	}
+
+	/**
+	 * Shuts the current pool down if it was created here. Its queued tiles are
+	 * still computed; calls that start on it afterwards compute in their own
+	 * thread, see TileExecutor.
+	 */
+	protected void releasePool() {
+		if (pool != null && !externalPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * Sets the edge length of the square tiles the a x b space is split into.
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1)
+			throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+		this.tileSize = tileSize;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Sets the gram size of the n-gram profiles prepare computes for ngramDice,
+	 * or 0 to not compute any, the default. Without profiles, ngramDice builds
+	 * them on every call, so enable them when matching with it.
+	 */
+	public void setNGramProfileSize(int ngramProfileSize) {
+		if (ngramProfileSize < 0)
+			throw new IllegalArgumentException("ngramProfileSize must not be negative: "
+					+ ngramProfileSize);
+		this.ngramProfileSize = ngramProfileSize;
+	}
+
+	public int getNGramProfileSize() {
+		return ngramProfileSize;
+	}
+
+	/**
+	 * Sets how dense similarity matrices computed by doMatch and locate store
+	 * their cells, see StorageMode for the precision of each mode.
+	 */
+	public void setStorageMode(StorageMode storageMode) {
+		if (storageMode == null)
+			throw new IllegalArgumentException("storageMode must not be null");
+		this.storageMode = storageMode;
+	}
+
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+
+	/**
+	 * Reports pairs and time per matcher and per operation to metrics, and hands
+	 * metrics on to the SimMatrix results to report their selections.
+	 */
+	public void setMetrics(MatchMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("metrics must not be null");
+		this.metrics = metrics;
+	}
+
+	public MatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Wraps the matcher to be counted and timed if metrics are enabled.
+	 */
+	protected StringSimilarity instrument(StringSimilarity matcher) {
+		if (!metrics.isEnabled())
+			return matcher;
+		return new TimedSimilarity(matcher);
+	}
+
+	protected List<StringSimilarity> instrument(List<StringSimilarity> matcherList) {
+		if (!metrics.isEnabled())
+			return matcherList;
+		List<StringSimilarity> timed = new ArrayList<>(matcherList.size());
+		for (StringSimilarity matcher : matcherList) {
+			timed.add(instrument(matcher));
+		}
+		return timed;
+	}
+
+	/**
+	 * Reports the matchers wrapped by instrument and the operation started at
+	 * start, once all worker threads are done.
+	 */
+	protected void completed(String operation, long cells, long start,
+			List<StringSimilarity> matchers) {
+		if (!metrics.isEnabled())
+			return;
+		for (StringSimilarity matcher : matchers) {
+			if (matcher instanceof TimedSimilarity)
+				((TimedSimilarity) matcher).report(metrics);
+		}
+		metrics.matchCompleted(operation, cells, System.nanoTime() - start);
+	}
+
+	protected SimMatrix completed(String operation, long cells, long start,
+			List<StringSimilarity> matchers, SimMatrix result) {
+		completed(operation, cells, start, matchers);
+		result.setMetrics(metrics);
+		result.tools = this;
+		return result;
+	}
+
+	protected TileExecutor tileExecutor() {
+		AtomicBoolean cancelled = JOB_CANCELLED.get();
+		if (parallelism == 1)
+			return new TileExecutor(null, tileSize, cancelled);
+		ForkJoinPool pool = this.pool;
+		if (pool == null) {
+			// only the first call after a change of parallelism locks
+			synchronized (this) {
+				if (this.pool == null && parallelism > 1)
+					this.pool = new ForkJoinPool(parallelism);
+				pool = this.pool;
+			}
+		}
+		return new TileExecutor(pool, tileSize, cancelled);
+	}
+
 	public SimMatrix doMatch(final PreparedString[] a,
 			final PreparedString[] b, List<StringSimilarity> matcherList,
 			AggregationStrategy aggStrategy) {
-		List<SimMatrix> matrices = new ArrayList<>(matcherList.size());
-		for (final StringSimilarity sd : matcherList) {
-			final DoubleMatrix2D m = DoubleFactory2D.dense.make(a.length,
-					b.length, 1.0);
-			m.forEachNonZero(new IntIntDoubleFunction() {
+		return doMatch(a, b, matcherList, aggStrategy, storageMode);
+	}
+
+	/**
+	 * Like doMatch(a, b, matcherList, aggStrategy), but stores the matrix in
+	 * the given mode instead of the configured one.
+	 */
+	public SimMatrix doMatch(final PreparedString[] a,
+			final PreparedString[] b, List<StringSimilarity> matcherList,
+			AggregationStrategy aggStrategy, StorageMode storageMode) {
+		long start = System.nanoTime();
+		matcherList = instrument(matcherList);
+		DoubleMatrix2D m = storageMode.make(a.length, b.length);
+		tileExecutor().fill(m, fusedCells(a, b, matcherList, aggStrategy));
+		return completed("doMatch", (long) a.length * b.length, start, matcherList,
+				new SimMatrix(m, a, b));
+	}
+
+	public SimMatrix doMatch(final String[] a, final String[] b,
+			List<StringSimilarity> matcherList, AggregationStrategy aggStrategy) {
+		return doMatch(a, b, matcherList, aggStrategy, storageMode);
+	}
+
+	public SimMatrix doMatch(final String[] a, final String[] b,
+			List<StringSimilarity> matcherList, AggregationStrategy aggStrategy,
+			StorageMode storageMode) {
+		long start = System.nanoTime();
+		matcherList = instrument(matcherList);
+		DoubleMatrix2D m = storageMode.make(a.length, b.length);
+		tileExecutor().fill(m, fusedCells(a, b, matcherList, aggStrategy));
+		return completed("doMatch", (long) a.length * b.length, start, matcherList,
+				new SimMatrix(m, a, b));
+	}
+
+	/**
+	 * Scores only the candidate pairs produced by the blocker. All other cells of
+	 * the returned sparse SimMatrix are zero.
+	 */
+	public SimMatrix doMatch(PreparedString[] a, PreparedString[] b,
+			List<StringSimilarity> matcherList, AggregationStrategy aggStrategy,
+			Blocker blocker) {
+		long start = System.nanoTime();
+		matcherList = instrument(matcherList);
+		CandidatePairs candidates = blocker.candidates(a, b);
+		double[] values = tileExecutor().fill(candidates,
+				fusedCells(a, b, matcherList, aggStrategy));
+		return completed("doMatchBlocked", candidates.size(), start, matcherList,
+				new SimMatrix(SimMatrix.sparse(candidates, values), a, b));
+	}
+
+	/**
+	 * The result of doMatch(a, b, matcherList, aggStrategy) followed by
+	 * selectThreshold(threshold), computed without evaluating every matcher for
+	 * every cell. Matchers are evaluated from the cheapest to the most
+	 * expensive, as told by BoundedSimilarity.cost; before each one, the
+	 * aggregate is bounded from the similarities computed so far and the upper
+	 * bounds of the others, or 1 for matchers without a bound, and a cell whose
+	 * bound falls below the threshold is set to zero right away. Similarities
+	 * are still aggregated in list order, so cells at or above the threshold
+	 * are the same as with doMatch. This requires an aggregation strategy that
+	 * never decreases when one of its arguments increases, as AGG_AVG. With a
+	 * rounding storage mode, cells are kept down to the rounding error below the
+	 * threshold and cut again once stored, since selectThreshold sees the
+	 * rounded values.
+	 */
+	public SimMatrix doMatch(final PreparedString[] a,
+			final PreparedString[] b, List<StringSimilarity> matcherList,
+			AggregationStrategy aggStrategy, final double threshold) {
+		long start = System.nanoTime();
+		StringSimilarity[] bounds = toMatcherArray(matcherList);
+		matcherList = instrument(matcherList);
+		DoubleMatrix2D m = storageMode.make(a.length, b.length);
+		double precision = m instanceof CompactDoubleMatrix2D ? ((CompactDoubleMatrix2D) m)
+				.getCells().precision() : 0.0;
+		tileExecutor().fill(m, thresholdCells(a, b, bounds, matcherList, aggStrategy,
+				threshold - precision));
+		if (precision > 0.0) {
+			m.assign(new DoubleFunction() {
 				@Override
-				public double apply(int x, int y, double v) {
-					return sd.similarity(a[x], b[y]);
+				public double apply(double d) {
+					return d >= threshold ? d : 0.0;
 				}
 			});
-			matrices.add(new SimMatrix(m, a, b));
 		}
+		return completed("doMatchThreshold", (long) a.length * b.length, start,
+				matcherList, new SimMatrix(m, a, b));
+	}
 
-		SimMatrix m = matrices.get(0);
-
-		switch (aggStrategy) {
-		case AGG_AVG:
-		default:
-			for (SimMatrix otherM : matrices.subList(1, matrices.size())) {
-				m.aggregateAvg(otherM);
+	/**
+	 * Recomputes a dense match after strings were added to or removed from a
+	 * and b, or reordered. Cells of pairs whose strings both occur among the
+	 * labels of previous are copied from it, only pairs involving a new string
+	 * are scored, so an update costs delta x n instead of m x n similarity
+	 * computations. The result equals doMatch(a, b, matcherList, aggStrategy)
+	 * if previous was computed by doMatch with the same matchers, aggregation
+	 * strategy, weighter and storage mode, and no selection has been applied to
+	 * it since.
+	 */
+	public SimMatrix updateMatch(SimMatrix previous, final PreparedString[] a,
+			final PreparedString[] b, List<StringSimilarity> matcherList,
+			AggregationStrategy aggStrategy) {
+		if (previous.isSparse())
+			throw new IllegalArgumentException("previous must be a dense match");
+		if (previous.getA() == null || previous.getB() == null)
+			throw new IllegalArgumentException("previous has no labels");
+		long start = System.nanoTime();
+		matcherList = instrument(matcherList);
+		final DoubleMatrix2D old = previous.getM();
+		final int[] oldRows = previousIndexes(previous.getA(), a);
+		final int[] oldColumns = previousIndexes(previous.getB(), b);
+		final TileExecutor.CellFunction f = fusedCells(a, b, matcherList, aggStrategy);
+		DoubleMatrix2D m = storageMode.make(a.length, b.length);
+		tileExecutor().fill(m, new TileExecutor.CellFunction() {
+			@Override
+			public double apply(int x, int y) {
+				if (oldRows[x] >= 0 && oldColumns[y] >= 0)
+					return old.getQuick(oldRows[x], oldColumns[y]);
+				return f.apply(x, y);
 			}
-			break;
+		});
+		long keptRows = 0;
+		for (int row : oldRows) {
+			if (row >= 0)
+				keptRows++;
+		}
+		long keptColumns = 0;
+		for (int column : oldColumns) {
+			if (column >= 0)
+				keptColumns++;
 		}
-		return m;
+		long scored = (long) a.length * b.length - keptRows * keptColumns;
+		return completed("updateMatch", scored, start, matcherList,
+				new SimMatrix(m, a, b));
 	}
 
-	public SimMatrix doMatch(final String[] a, final String[] b,
-			List<StringSimilarity> matcherList, AggregationStrategy aggStrategy) {
-		List<SimMatrix> matrices = new ArrayList<>(matcherList.size());
-		for (final StringSimilarity sd : matcherList) {
-			final DoubleMatrix2D m = DoubleFactory2D.dense.make(a.length,
-					b.length, 1.0);
-			m.forEachNonZero(new IntIntDoubleFunction() {
+	public SimMatrix updateMatch(SimMatrix previous, PreparedString[] a,
+			PreparedString[] b) {
+		List<StringSimilarity> lst = new ArrayList<>();
+		lst.add(weightedByWordLevenshtein);
+		lst.add(ngram);
+		return updateMatch(previous, a, b, lst, AggregationStrategy.AGG_AVG);
+	}
+
+	/**
+	 * For every string, the index of an equal one among labels, or -1.
+	 */
+	protected static int[] previousIndexes(String[] labels, PreparedString[] strings) {
+		Map<String, Integer> indexes = new HashMap<>(labels.length * 2);
+		for (int i = labels.length - 1; i >= 0; i--) {
+			indexes.put(labels[i], i);
+		}
+		int[] previous = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			Integer index = indexes.get(strings[i].string);
+			previous[i] = index == null ? -1 : index;
+		}
+		return previous;
+	}
+
+	/**
+	 * Streams b in chunks and keeps only the k most similar strings of b for
+	 * every string of a, so the full a x b matrix is never materialized. Returns
+	 * a sparse SimMatrix over all of b with at most k nonzero cells per row. Of
+	 * equally similar strings, those earlier in b are kept, however b is split
+	 * into chunks.
+	 */
+	public SimMatrix topK(final PreparedString[] a, Iterator<PreparedString[]> b,
+			List<StringSimilarity> matcherList, AggregationStrategy aggStrategy,
+			int k) {
+		long start = System.nanoTime();
+		matcherList = instrument(matcherList);
+		final TopKHeaps heaps = new TopKHeaps(a.length, k);
+		List<String> bStrings = new ArrayList<>();
+		TileExecutor executor = tileExecutor();
+		while (b.hasNext()) {
+			final PreparedString[] chunk = b.next();
+			final int offset = bStrings.size();
+			for (PreparedString s : chunk) {
+				bStrings.add(s.string);
+			}
+			final TileExecutor.CellFunction f = fusedCells(a, chunk, matcherList,
+					aggStrategy);
+			executor.forEachRow(a.length, new TileExecutor.RowFunction() {
 				@Override
-				public double apply(int x, int y, double v) {
-					return sd.similarity(a[x], b[y]);
+				public void apply(int x) {
+					for (int y = 0; y < chunk.length; y++) {
+						double sim = f.apply(x, y);
+						if (sim > 0.0)
+							heaps.offer(x, offset + y, sim);
+					}
 				}
 			});
-			matrices.add(new SimMatrix(m, a, b));
-		}
-		SimMatrix m = matrices.get(0);
-		switch (aggStrategy) {
-		case AGG_AVG:
-		default:
-			for (SimMatrix otherM : matrices.subList(1, matrices.size())) {
-				m.aggregateAvg(otherM);
+		}
+		heaps.sortByIndex();
+
+		int[] rowPointers = new int[a.length + 1];
+		for (int x = 0; x < a.length; x++) {
+			rowPointers[x + 1] = rowPointers[x] + heaps.size(x);
+		}
+		int[] columnIndexes = new int[rowPointers[a.length]];
+		double[] values = new double[rowPointers[a.length]];
+		for (int x = 0; x < a.length; x++) {
+			System.arraycopy(heaps.indexes, x * k, columnIndexes, rowPointers[x], heaps.size(x));
+			System.arraycopy(heaps.scores, x * k, values, rowPointers[x], heaps.size(x));
+		}
+		CandidatePairs pairs = new CandidatePairs(a.length, bStrings.size(),
+				rowPointers, columnIndexes);
+		String[] aStrings = new String[a.length];
+		for (int x = 0; x < a.length; x++) {
+			aStrings[x] = a[x].string;
+		}
+		return completed("topK", (long) a.length * bStrings.size(), start, matcherList,
+				new SimMatrix(SimMatrix.sparse(pairs, values), aStrings,
+						bStrings.toArray(new String[bStrings.size()])));
+	}
+
+	public SimMatrix topK(PreparedString[] a, Iterator<PreparedString[]> b, int k) {
+		List<StringSimilarity> lst = new ArrayList<>();
+		lst.add(weightedByWordLevenshtein);
+		lst.add(ngram);
+		return topK(a, b, lst, AggregationStrategy.AGG_AVG, k);
+	}
+
+	/**
+	 * Evaluates all matchers for a cell at once and folds their similarities
+	 * with the aggregation strategy, so only the output matrix is allocated.
+	 */
+	protected TileExecutor.CellFunction fusedCells(final PreparedString[] a,
+			final PreparedString[] b, List<StringSimilarity> matcherList,
+			final AggregationStrategy aggStrategy) {
+		final StringSimilarity[] matchers = toMatcherArray(matcherList);
+		return new TileExecutor.CellFunction() {
+			@Override
+			public double apply(int x, int y) {
+				double sim = matchers[0].similarity(a[x], b[y]);
+				for (int i = 1; i < matchers.length; i++) {
+					sim = aggStrategy.aggregate(sim, matchers[i].similarity(a[x], b[y]));
+				}
+				return sim;
+			}
+		};
+	}
+
+	/**
+	 * Like fusedCells, but returns zero as soon as the bounds show that a cell
+	 * stays below the threshold. bounds are the matchers of matcherList before
+	 * instrumenting them.
+	 */
+	protected TileExecutor.CellFunction thresholdCells(final PreparedString[] a,
+			final PreparedString[] b, final StringSimilarity[] bounds,
+			List<StringSimilarity> matcherList, final AggregationStrategy aggStrategy,
+			final double threshold) {
+		final StringSimilarity[] matchers = toMatcherArray(matcherList);
+		final int[] order = costOrder(bounds);
+		final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>() {
+			@Override
+			protected double[] initialValue() {
+				return new double[matchers.length];
 			}
-			break;
+		};
+		return new TileExecutor.CellFunction() {
+			@Override
+			public double apply(int x, int y) {
+				double[] sims = scratch.get();
+				for (int i = 0; i < matchers.length; i++) {
+					sims[i] = bounds[i] instanceof BoundedSimilarity ? ((BoundedSimilarity) bounds[i])
+							.upperBound(a[x], b[y]) : 1.0;
+				}
+				if (aggregate(sims) < threshold)
+					return 0.0;
+				double sim = 0.0;
+				for (int i : order) {
+					sims[i] = matchers[i].similarity(a[x], b[y]);
+					sim = aggregate(sims);
+					if (sim < threshold)
+						return 0.0;
+				}
+				// NaN fails the threshold as in selectThreshold
+				return sim >= threshold ? sim : 0.0;
+			}
+
+			private double aggregate(double[] sims) {
+				double sim = sims[0];
+				for (int i = 1; i < sims.length; i++) {
+					sim = aggStrategy.aggregate(sim, sims[i]);
+				}
+				return sim;
+			}
+		};
+	}
+
+	/**
+	 * Indexes of matchers from the cheapest to the most expensive; matchers
+	 * without a cost come last, in list order.
+	 */
+	protected static int[] costOrder(final StringSimilarity[] matchers) {
+		Integer[] order = new Integer[matchers.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(cost(matchers[i]), cost(matchers[j]));
+			}
+		});
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			result[i] = order[i];
 		}
-		return m;
+		return result;
+	}
+
+	private static double cost(StringSimilarity matcher) {
+		return matcher instanceof BoundedSimilarity ? ((BoundedSimilarity) matcher).cost()
+				: Double.POSITIVE_INFINITY;
+	}
+
+	protected TileExecutor.CellFunction fusedCells(final String[] a,
+			final String[] b, List<StringSimilarity> matcherList,
+			final AggregationStrategy aggStrategy) {
+		final StringSimilarity[] matchers = toMatcherArray(matcherList);
+		return new TileExecutor.CellFunction() {
+			@Override
+			public double apply(int x, int y) {
+				double sim = matchers[0].similarity(a[x], b[y]);
+				for (int i = 1; i < matchers.length; i++) {
+					sim = aggStrategy.aggregate(sim, matchers[i].similarity(a[x], b[y]));
+				}
+				return sim;
+			}
+		};
+	}
+
+	protected static StringSimilarity[] toMatcherArray(List<StringSimilarity> matcherList) {
+		if (matcherList.isEmpty())
+			throw new IllegalArgumentException("matcherList must not be empty");
+		return matcherList.toArray(new StringSimilarity[matcherList.size()]);
 	}
 
 	public SimMatrix doMatch(String[] a, String[] b) {
@@ -101,30 +603,41 @@ public class MatchTools {
 		return doMatch(a, b, lst, AggregationStrategy.AGG_AVG);
 	}
 
+	/**
+	 * Rows of haystack may have different lengths; cells beyond the end of a
+	 * row have similarity zero.
+	 */
 	public HitMatrix locate(final String needle, final String[][] haystack) {
 		int m = haystack.length;
-		int n = haystack[0].length;
-		final StringSimilarity sd = this.weightedByWordLevenshtein;
+		int n = maxRowLength(haystack);
+		long start = System.nanoTime();
+		final StringSimilarity sd = instrument(this.weightedByWordLevenshtein);
 
-		final DoubleMatrix2D mat = DoubleFactory2D.dense.make(m, n, 1.0);
-		mat.forEachNonZero(new IntIntDoubleFunction() {
+		final DoubleMatrix2D mat = storageMode.make(m, n);
+		tileExecutor().fill(mat, new TileExecutor.CellFunction() {
 			@Override
-			public double apply(int x, int y, double v) {
+			public double apply(int x, int y) {
+				if (y >= haystack[x].length)
+					return 0.0;
 				return sd.similarity(needle, haystack[x][y]);
 			}
 		});
-		return new HitMatrix(mat, needle, haystack);
+		return (HitMatrix) completed("locate", (long) m * n, start,
+				Collections.singletonList(sd), new HitMatrix(mat, needle, haystack));
 	}
 
 	public HitMatrix locate(final String[] needles, final String[][] haystack) {
 		int m = haystack.length;
-		int n = haystack[0].length;
-		final StringSimilarity sd = this.weightedByWordLevenshtein;
+		int n = maxRowLength(haystack);
+		long start = System.nanoTime();
+		final StringSimilarity sd = instrument(this.weightedByWordLevenshtein);
 
-		final DoubleMatrix2D mat = DoubleFactory2D.dense.make(m, n, 1.0);
-		mat.forEachNonZero(new IntIntDoubleFunction() {
+		final DoubleMatrix2D mat = storageMode.make(m, n);
+		tileExecutor().fill(mat, new TileExecutor.CellFunction() {
 			@Override
-			public double apply(int x, int y, double v) {
+			public double apply(int x, int y) {
+				if (y >= haystack[x].length)
+					return 0.0;
 				double maxSim = 0.0;
 				for (int i = 0; i < needles.length; i++) {
 					double needleSim = sd
@@ -135,7 +648,80 @@ public class MatchTools {
 				return maxSim;
 			}
 		});
-		return new HitMatrix(mat, needles, haystack);
+		return (HitMatrix) completed("locate", (long) m * n, start,
+				Collections.singletonList(sd), new HitMatrix(mat, needles, haystack));
+	}
+
+	protected static int maxRowLength(String[][] haystack) {
+		int n = 0;
+		for (String[] row : haystack) {
+			n = Math.max(n, row.length);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the k cells of the prepared haystack most similar to the needle,
+	 * see locate(String[], PreparedHaystack, int).
+	 */
+	public List<MatchingIndices> locate(String needle, PreparedHaystack haystack,
+			int k) {
+		return locate(new String[] {needle}, haystack, k).get(0);
+	}
+
+	/**
+	 * Returns, for every needle, the k cells of the prepared haystack most
+	 * similar to it by weightedByWordLevenshtein as (row, column, similarity),
+	 * best first. Cells with similarity zero are never returned. Only cells
+	 * sharing a word with the needle that the similarity's word matcher accepts
+	 * are scored, as all other cells have similarity zero anyway.
+	 */
+	public List<List<MatchingIndices>> locate(String[] needles,
+			final PreparedHaystack haystack, int k) {
+		long start = System.nanoTime();
+		final PreparedString[] prepared = prepare(needles);
+		StringSimilarity matcher = this.weightedByWordLevenshtein;
+		final BoundedLevenshtein ld = matcher instanceof StringSimilarities.WeightedByWordLevenshtein
+				? ((StringSimilarities.WeightedByWordLevenshtein) matcher).getLevenshtein()
+				: null;
+		final StringSimilarity sd = instrument(matcher);
+		final TopKHeaps heaps = new TopKHeaps(needles.length, k);
+		tileExecutor().forEachRow(needles.length, new TileExecutor.RowFunction() {
+			@Override
+			public void apply(int x) {
+				PreparedString needle = prepared[x];
+				if (ld == null) {
+					for (int c = 0; c < haystack.size(); c++) {
+						double sim = sd.similarity(needle, haystack.cells[c]);
+						if (sim > 0.0)
+							heaps.offer(x, c, sim);
+					}
+					return;
+				}
+				for (int c : haystack.candidates(needle.words, ld)) {
+					double sim = sd.similarity(needle, haystack.cells[c]);
+					if (sim > 0.0)
+						heaps.offer(x, c, sim);
+				}
+			}
+		});
+		heaps.sortByIndex();
+
+		List<List<MatchingIndices>> hits = new ArrayList<>(needles.length);
+		for (int x = 0; x < needles.length; x++) {
+			List<MatchingIndices> needleHits = new ArrayList<>(heaps.size(x));
+			for (int i = x * k; i < x * k + heaps.size(x); i++) {
+				int c = heaps.indexes[i];
+				needleHits.add(new MatchingIndices(haystack.cellRows[c],
+						haystack.column(c), heaps.scores[i]));
+			}
+			// stable, so equal similarities stay in table order
+			Collections.sort(needleHits, Collections.reverseOrder());
+			hits.add(needleHits);
+		}
+		completed("locatePrepared", (long) needles.length * haystack.size(), start,
+				Collections.singletonList(sd));
+		return hits;
 	}
 
 	public SimMatrix doMatch(String[] a, String[] b,
@@ -148,13 +734,94 @@ public class MatchTools {
 		return doMatch(a, b, matcherList, AggregationStrategy.AGG_AVG);
 	}
 
+	/**
+	 * Prepares a and b and only fully scores the pairs that may reach the
+	 * mapping's threshold.
+	 */
 	public List<Match> defaultMapping(String[] a, String[] b) {
-		SimMatrix m = doMatch(a, b);
-		m.selectThreshold(0.13);
+		List<StringSimilarity> lst = new ArrayList<>();
+		lst.add(weightedByWordLevenshtein);
+		lst.add(ngram);
+		return defaultMapping(doMatch(prepare(a), prepare(b), lst,
+				AggregationStrategy.AGG_AVG, DEFAULT_MAPPING_THRESHOLD));
+	}
+
+	/**
+	 * Like defaultMapping(a, b), but only scores the pairs the blocker selects.
+	 */
+	public List<Match> defaultMapping(String[] a, String[] b, Blocker blocker) {
+		List<StringSimilarity> lst = new ArrayList<>();
+		lst.add(weightedByWordLevenshtein);
+		lst.add(ngram);
+		return defaultMapping(doMatch(prepare(a), prepare(b), lst,
+				AggregationStrategy.AGG_AVG, blocker));
+	}
+
+	/**
+	 * The selections of defaultMapping, applied to m.
+	 */
+	protected static List<Match> defaultMapping(SimMatrix m) {
+		m.setCompactSelections(true);
+		m.selectThreshold(DEFAULT_MAPPING_THRESHOLD);
 		m.selectBipartiteGreedy();
 		return m.getMapping();
 	}
 
+	/**
+	 * Prepares strings with this instance's weighter and token dictionary, so
+	 * that the by-word similarities can reuse word-pair results across them.
+	 * The dictionary lives as long as this instance and stops assigning ids
+	 * after DEFAULT_DICTIONARY_SIZE distinct words; pairs of later words are
+	 * compared without the cache. Long-running processes that prepare ever new
+	 * words should use prepare(s, dictionary) with a dictionary per match run.
+	 */
+	public PreparedString[] prepare(String[] s) {
+		return prepare(s, dictionary);
+	}
+
+	/**
+	 * Prepares strings with this instance's weighter and the given dictionary,
+	 * or without token ids if it is null. Word-pair results are only reused
+	 * between strings prepared with the same dictionary.
+	 */
+	public PreparedString[] prepare(String[] s, TokenDictionary dictionary) {
+		if (weighter.prefetches()) {
+			Set<String> words = new HashSet<>();
+			for (String str : s) {
+				Collections.addAll(words, str.split(" "));
+			}
+			weighter.prefetch(words);
+		}
+
+		PreparedString[] prepared = new PreparedString[s.length];
+		for (int i = 0; i < s.length; i++) {
+			prepared[i] = dictionary == null ? new PreparedString(s[i], weighter)
+					: new PreparedString(s[i], weighter, dictionary);
+			if (ngramProfileSize > 0)
+				prepared[i].computeNGrams(ngramProfileSize);
+		}
+		return prepared;
+	}
+
+	/**
+	 * Prepares a table for repeated locate calls. Rows may have different
+	 * lengths.
+	 */
+	public PreparedHaystack prepare(String[][] haystack) {
+		int size = 0;
+		for (String[] row : haystack) {
+			size += row.length;
+		}
+		String[] cells = new String[size];
+		int c = 0;
+		for (String[] row : haystack) {
+			for (String cell : row) {
+				cells[c++] = cell;
+			}
+		}
+		return new PreparedHaystack(haystack, prepare(cells));
+	}
+
 	public void cleanStringArray(String[] S) {
 		for (int i = 0; i < S.length; i++) {
 			String s = S[i];
@@ -0,0 +1,63 @@
+package de.tudresden.matchtools;
+
+import java.util.Arrays;
+
+/**
+ * Sorting of primitive score arrays without boxing or comparators.
+ */
+class PrimitiveSorting {
+
+	private static final int DIGIT_BITS = 16;
+	private static final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+
+	private PrimitiveSorting() {
+	}
+
+	/**
+	 * Returns the indices 0..size-1 ordered by descending values[i]. Equal
+	 * values keep ascending index order. Uses an LSD radix sort over the bits of
+	 * the doubles, skipping digits all values agree on.
+	 */
+	static int[] descendingOrder(double[] values, int size) {
+		long[] keys = new long[size];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			long bits = Double.doubleToLongBits(values[i]);
+			// make the bits compare like the doubles, as unsigned longs
+			bits ^= (bits >> 63) | Long.MIN_VALUE;
+			keys[i] = ~bits;
+			order[i] = i;
+		}
+
+		long[] keysTmp = new long[size];
+		int[] orderTmp = new int[size];
+		int[] counts = new int[DIGIT_MASK + 2];
+		for (int shift = 0; shift < 64; shift += DIGIT_BITS) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; i++) {
+				counts[(int) (keys[i] >>> shift) & DIGIT_MASK]++;
+			}
+			if (size == 0 || counts[(int) (keys[0] >>> shift) & DIGIT_MASK] == size)
+				continue;
+			int offset = 0;
+			for (int d = 0; d <= DIGIT_MASK; d++) {
+				int c = counts[d];
+				counts[d] = offset;
+				offset += c;
+			}
+			for (int i = 0; i < size; i++) {
+				int d = (int) (keys[i] >>> shift) & DIGIT_MASK;
+				int pos = counts[d]++;
+				keysTmp[pos] = keys[i];
+				orderTmp[pos] = order[i];
+			}
+			long[] swapKeys = keys;
+			keys = keysTmp;
+			keysTmp = swapKeys;
+			int[] swapOrder = order;
+			order = orderTmp;
+			orderTmp = swapOrder;
+		}
+		return order;
+	}
+}
@@ -5,9 +5,9 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,25 +16,33 @@ import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
 
 import cern.colt.function.tdouble.DoubleDoubleFunction;
 import cern.colt.function.tdouble.DoubleFunction;
-import cern.colt.function.tdouble.IntIntDoubleFunction;
-import cern.colt.function.tint.IntIntIntFunction;
 import cern.colt.list.tdouble.DoubleArrayList;
 import cern.colt.list.tint.IntArrayList;
-import cern.colt.matrix.tdouble.DoubleFactory1D;
 import cern.colt.matrix.tdouble.DoubleFactory2D;
-import cern.colt.matrix.tdouble.DoubleMatrix1D;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
-import cern.colt.matrix.tint.IntFactory2D;
-import cern.colt.matrix.tint.IntMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseRCDoubleMatrix2D;
 import cern.jet.math.tdouble.DoubleFunctions;
+import de.tudresden.matchtools.datastructures.CandidatePairs;
+import de.tudresden.matchtools.datastructures.MappingStatistics;
 import de.tudresden.matchtools.datastructures.Match;
 import de.tudresden.matchtools.datastructures.PreparedString;
 import de.tudresden.matchtools.datastructures.MatchingIndices;
+import de.tudresden.matchtools.matrix.CompactDoubleMatrix2D;
+import de.tudresden.matchtools.metrics.MatchMetrics;
 
 public class SimMatrix {
+	public static final int DEFAULT_HISTOGRAM_BINS = 10;
+	/** dense matrices with fewer cells are selected in the calling thread */
+	protected static final int PARALLEL_SELECTION_CELLS = 1 << 16;
+
 	protected DoubleMatrix2D M;
 	protected String[] A;
 	protected String[] B;
+	protected boolean compactSelections = false;
+	protected MatchMetrics metrics = MatchMetrics.NONE;
+	/** whose pool selections run on, MatchTools.DEFAULT unless computed by one */
+	protected MatchTools tools = MatchTools.DEFAULT;
 
     public SimMatrix(DoubleMatrix2D m) {
         super();
@@ -88,6 +96,115 @@ public class SimMatrix {
 		return B;
 	}
 
+	public boolean isSparse() {
+		return M instanceof SparseRCDoubleMatrix2D;
+	}
+
+	/**
+	 * Converts M to a row-compressed sparse matrix holding only its nonzero
+	 * cells, so memory and traversal cost are proportional to the matches.
+	 */
+	public SimMatrix toSparse() {
+		if (M instanceof SparseRCDoubleMatrix2D) {
+			compact();
+			return this;
+		}
+		IntArrayList rl = new IntArrayList();
+		IntArrayList cl = new IntArrayList();
+		DoubleArrayList vl = new DoubleArrayList();
+		getNonZeros(rl, cl, vl);
+		rl.trimToSize();
+		cl.trimToSize();
+		vl.trimToSize();
+		// getNonZeros of dense matrices is row-major, others need sorting
+		boolean rowMajor = M instanceof DenseDoubleMatrix2D
+				|| M instanceof CompactDoubleMatrix2D;
+		M = sparse(M.rows(), M.columns(), rl.elements(), cl.elements(),
+				vl.elements(), false, !rowMajor);
+		return this;
+	}
+
+	/**
+	 * Converts M back to a dense matrix. Dense matrices of any storage mode are
+	 * kept as they are, others become dense doubles.
+	 */
+	public SimMatrix toDense() {
+		if (M instanceof DenseDoubleMatrix2D || M instanceof CompactDoubleMatrix2D)
+			return this;
+		return toDense(StorageMode.DOUBLE);
+	}
+
+	/**
+	 * Converts M to a dense matrix stored in the given mode, rounding its cells
+	 * as described there.
+	 */
+	public SimMatrix toDense(StorageMode mode) {
+		IntArrayList rl = new IntArrayList();
+		IntArrayList cl = new IntArrayList();
+		DoubleArrayList vl = new DoubleArrayList();
+		getNonZeros(rl, cl, vl);
+		DoubleMatrix2D dense = mode.make(M.rows(), M.columns());
+		for (int i = 0; i < rl.size(); i++) {
+			dense.setQuick(rl.getQuick(i), cl.getQuick(i), vl.getQuick(i));
+		}
+		M = dense;
+		return this;
+	}
+
+	/**
+	 * If set, selection operators leave their result in sparse form. Sparse
+	 * matrices always stay sparse.
+	 */
+	public void setCompactSelections(boolean compactSelections) {
+		this.compactSelections = compactSelections;
+	}
+
+	public boolean isCompactSelections() {
+		return compactSelections;
+	}
+
+	/**
+	 * Reports the time of every selection to metrics.
+	 */
+	public void setMetrics(MatchMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("metrics must not be null");
+		this.metrics = metrics;
+	}
+
+	public MatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Called at the end of every selection operator.
+	 */
+	protected void selected() {
+		if (M instanceof SparseRCDoubleMatrix2D)
+			compact();
+		else if (compactSelections)
+			toSparse();
+	}
+
+	/**
+	 * Like selected(), and reports the selection started at start.
+	 */
+	protected void selected(String selection, long start) {
+		selected();
+		if (metrics.isEnabled())
+			metrics.selectionCompleted(selection, M.rows(), M.columns(),
+					System.nanoTime() - start);
+	}
+
+	/**
+	 * Drops cells a selection has set to zero from a sparse M.
+	 */
+	protected void compact() {
+		SparseRCDoubleMatrix2D S = (SparseRCDoubleMatrix2D) M;
+		S.removeZeroes();
+		S.trimToSize();
+	}
+
 	int countMatches() {
 		return M.cardinality();
 	}
@@ -113,43 +230,42 @@ public class SimMatrix {
 	}
 
 	public void selectThreshold(final double th) {
+		long start = System.nanoTime();
 		M.assign(new ThresholdFunction(th));
+		selected("selectThreshold", start);
 	}
 
+	/**
+	 * Keeps only the cells that are the maximum of both their row and their
+	 * column.
+	 */
 	public void selectMax() {
-		DoubleMatrix2D t_h = maxima(M);
-		DoubleMatrix2D t_v = maxima(M.viewDice()).viewDice();
-		DoubleMatrix2D t_m = matMax(t_h, t_v);
-		selectWhereLarger(t_m);
-	}
-
-	protected class DeltaFunction implements DoubleFunction {
-
-		double delta;
-
-		public DeltaFunction(double delta) {
-			this.delta = delta;
-		}
-
-		@Override
-		public double apply(double d) {
-			return d - delta;
-		}
+		long start = System.nanoTime();
+		selectNearMaxima(0.0);
+		selected("selectMax", start);
 	}
 
+	/**
+	 * Keeps only the cells that are within delta of the maximum of their row and
+	 * within delta of the maximum of their column.
+	 */
 	public void selectMaxDelta(double delta) {
-		DoubleFunction df = new DeltaFunction(delta);
- 		DoubleMatrix2D t_h = maxima(M).assign(df);
-        DoubleMatrix2D t_v = maxima(M.viewDice()).viewDice().assign(df);
-        DoubleMatrix2D t_m = matMax(t_h, t_v);
-        selectWhereLarger(t_m);
+		long start = System.nanoTime();
+		selectNearMaxima(delta);
+		selected("selectMaxDelta", start);
 	}
 
 	public void selectMaxDelta() {
 		selectMaxDelta(0.1);
 	}
 
+	/**
+	 * Greedy 1:1 selection: visits the nonzero cells by descending similarity
+	 * and keeps a cell if neither its row nor its column has been matched yet.
+	 * Ties are visited in row-major order.
+	 */
 	public void selectBipartiteGreedy() {
+		long start = System.nanoTime();
 		int m = M.rows();
 		int n = M.columns();
 		BitSet usedRows = new BitSet(m);
@@ -157,48 +273,136 @@ public class SimMatrix {
 		int maxMatches = min(m, n);
 		int matches = 0;
 
-		List<MatchingIndices> rawMatches = getMatchingIndices();
-		Collections.sort(rawMatches, Collections.reverseOrder());
+		IntArrayList rl = new IntArrayList();
+		IntArrayList cl = new IntArrayList();
+		DoubleArrayList vl = new DoubleArrayList();
+		getNonZeros(rl, cl, vl);
+		int[] rows = rl.elements();
+		int[] cols = cl.elements();
+		double[] values = vl.elements();
+		int k = rl.size();
 
+		int[] order = PrimitiveSorting.descendingOrder(values, k);
 
-		for (MatchingIndices mi : rawMatches) {
-			int a = mi.a;
-			int b = mi.b;
-			double sim = mi.c;
+		BitSet selected = new BitSet(k);
+		for (int o = 0; o < k && matches < maxMatches; o++) {
+			int i = order[o];
 			// still free?
-			if  (usedRows.get(a) || usedCols.get(b))
+			if (usedRows.get(rows[i]) || usedCols.get(cols[i]))
 				continue;
+			usedRows.set(rows[i]);
+			usedCols.set(cols[i]);
+			selected.set(i);
+			matches++;
+		}
+		retain(rows, cols, values, k, selected);
+		selected("selectBipartiteGreedy", start);
+	}
+
+	/**
+	 * Optimal 1:1 selection: keeps the set of cells, at most one per row and
+	 * column, with the largest total similarity. Usually applied after a
+	 * threshold selection, which keeps the problem sparse.
+	 */
+	public void selectOptimalAssignment() {
+		long start = System.nanoTime();
+		IntArrayList rl = new IntArrayList();
+		IntArrayList cl = new IntArrayList();
+		DoubleArrayList vl = new DoubleArrayList();
+		getNonZeros(rl, cl, vl);
+		int[] rows = rl.elements();
+		int[] cols = cl.elements();
+		double[] values = vl.elements();
+		int k = rl.size();
+
+		// getNonZeros is row-major, so the cells already are in row-compressed order
+		int m = M.rows();
+		int[] rowPointers = new int[m + 1];
+		for (int i = 0; i < k; i++) {
+			rowPointers[rows[i] + 1]++;
+		}
+		for (int r = 0; r < m; r++) {
+			rowPointers[r + 1] += rowPointers[r];
+		}
+		int[] assignment = new SparseHungarianAssignment(m, M.columns(), rowPointers,
+				cols, values).solve();
 
-			usedRows.set(a);
-			usedCols.set(b);
-			M.viewRow(a).assign(0.0);
-			M.viewColumn(b).assign(0.0);
-			M.setQuick(a,b,sim);
+		BitSet selected = new BitSet(k);
+		for (int r = 0; r < m; r++) {
+			if (assignment[r] >= 0)
+				selected.set(assignment[r]);
+		}
+		retain(rows, cols, values, k, selected);
+		selected("selectOptimalAssignment", start);
+	}
 
-			matches++;
-			if (matches == maxMatches)
-				break;
+	/**
+	 * Keeps only the selected ones of the k nonzero cells, as returned by
+	 * getNonZeros, and sets all others to zero.
+	 */
+	protected void retain(int[] rows, int[] cols, double[] values, int k, BitSet selected) {
+		if (M instanceof SparseRCDoubleMatrix2D) {
+			int size = selected.cardinality();
+			int[] selectedRows = new int[size];
+			int[] selectedCols = new int[size];
+			double[] selectedValues = new double[size];
+			int s = 0;
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				selectedRows[s] = rows[i];
+				selectedCols[s] = cols[i];
+				selectedValues[s] = values[i];
+				s++;
+			}
+			M = sparse(M.rows(), M.columns(), selectedRows, selectedCols,
+					selectedValues, false, false);
+			return;
+		}
+		for (int i = selected.nextClearBit(0); i < k; i = selected.nextClearBit(i + 1)) {
+			M.setQuick(rows[i], cols[i], 0.0);
 		}
 	}
 
 	public void selectAboveNoise() {
+		long start = System.nanoTime();
 		StandardDeviation sd = new StandardDeviation();
 		int m = A.length;
 		int n = B.length;
 		int i = 0, j = 0;
 		double s = 0.0;
 
-		for (i = 0; i < m; i++) {
-			for (j = 0; j < n; j++) {
-				double v = M.getQuick(i, j);
-				sd.increment(v);
-				s += v;
+		if (M instanceof SparseRCDoubleMatrix2D) {
+			// walk the stored cells, visiting cells in the same order as below
+			SparseRCDoubleMatrix2D S = (SparseRCDoubleMatrix2D) M;
+			if (!S.hasColumnIndexesSorted())
+				S.sortColumnIndexes();
+			int[] rowPointers = S.getRowPointers();
+			int[] columnIndexes = S.getColumnIndexes();
+			double[] values = S.getValues();
+			for (i = 0; i < m; i++) {
+				int k = rowPointers[i];
+				for (j = 0; j < n; j++) {
+					double v = 0.0;
+					if (k < rowPointers[i + 1] && columnIndexes[k] == j)
+						v = values[k++];
+					sd.increment(v);
+					s += v;
+				}
+			}
+		} else {
+			for (i = 0; i < m; i++) {
+				for (j = 0; j < n; j++) {
+					double v = M.getQuick(i, j);
+					sd.increment(v);
+					s += v;
+				}
 			}
 		}
 		double stdDev = sd.getResult();
 		double noiseLevel = s / (m*n) + (2 * stdDev);
 		// //System.out.println("noiselevel: "+noiseLevel);
 		selectThreshold(noiseLevel);
+		if (metrics.isEnabled())
+			metrics.selectionCompleted("selectAboveNoise", m, n, System.nanoTime() - start);
 	}
 
 	protected class AverageFunction implements DoubleDoubleFunction {
@@ -232,7 +436,14 @@ public class SimMatrix {
 
 	protected SignAndAddFunction signAndAddFunction = new SignAndAddFunction();
 
+	/**
+	 * Leaves the number of agreeing matrices in M, which quantized storage
+	 * cannot hold, so such an M is converted to dense doubles first.
+	 */
 	public SimMatrix aggregateMajorityHorizontal(Collection<SimMatrix> mats) {
+		if (M instanceof CompactDoubleMatrix2D
+				&& ((CompactDoubleMatrix2D) M).getCells().isBounded())
+			M = DoubleFactory2D.dense.make(M.rows(), M.columns()).assign(M);
 		M.assign(DoubleFunctions.sign);
 		for (SimMatrix other : mats) {
 			M.assign(other.getM(), signAndAddFunction);
@@ -246,7 +457,7 @@ public class SimMatrix {
         IntArrayList rl = new IntArrayList();
         IntArrayList cl = new IntArrayList();
         DoubleArrayList vl = new DoubleArrayList();
-        M.getNonZeros(rl, cl, vl);
+        getNonZeros(rl, cl, vl);
 
         Map<Integer, Integer> result = new HashMap<>();
         for (int i=0; i<rl.size(); i++) {
@@ -259,7 +470,7 @@ public class SimMatrix {
         IntArrayList rl = new IntArrayList();
         IntArrayList cl = new IntArrayList();
         DoubleArrayList vl = new DoubleArrayList();
-        M.getNonZeros(rl, cl, vl);
+        getNonZeros(rl, cl, vl);
 
         Map<Integer, MatchingIndices> result = new HashMap<>();
         for (int i=0; i<rl.size(); i++) {
@@ -272,7 +483,7 @@ public class SimMatrix {
         IntArrayList rl = new IntArrayList();
         IntArrayList cl = new IntArrayList();
         DoubleArrayList vl = new DoubleArrayList();
-        M.getNonZeros(rl, cl, vl);
+        getNonZeros(rl, cl, vl);
 
         List<MatchingIndices> result = new ArrayList<>(rl.size());
         for (int i=0; i<rl.size(); i++) {
@@ -285,7 +496,7 @@ public class SimMatrix {
         IntArrayList rl = new IntArrayList();
         IntArrayList cl = new IntArrayList();
         DoubleArrayList vl = new DoubleArrayList();
-        M.getNonZeros(rl, cl, vl);
+        getNonZeros(rl, cl, vl);
 
         List<Match> result = new ArrayList<>(rl.size());
         for (int i=0; i<rl.size(); i++) {
@@ -295,112 +506,281 @@ public class SimMatrix {
     }
 
 	public SimMatrix copy() {
-		return new SimMatrix(M.copy(), A, B);
+		SimMatrix copy = new SimMatrix(M.copy(), A, B);
+		copy.compactSelections = compactSelections;
+		copy.metrics = metrics;
+		copy.tools = tools;
+		return copy;
 	}
 
+	/**
+	 * The average over the longer side of the share each string has in its
+	 * matches: every positive cell contributes its similarity divided by the
+	 * number of positive cells in its row and column, counting itself once.
+	 */
     public double getMonogamy() {
-    	DoubleMatrix2D partnerMatrix = partnerMatrix(M);
-    	partnerMatrix.assign(M, new DoubleDoubleFunction() {
-    		@Override
-    		public double apply(double d1, double d2) {
-    			return d2 / d1;
-    		}
-    	});
-    	if (M.rows() < M.columns())
-    		partnerMatrix = partnerMatrix.viewDice();
-    	DoubleMatrix1D rowSums = DoubleFactory1D.dense.make(partnerMatrix.rows());
-    	for (int i =0; i<rowSums.size(); i++) {
-    		rowSums.setQuick(i, partnerMatrix.viewRow(i).zSum());
-    	}
-    	return rowSums.zSum() / rowSums.size();
+    	return getStatistics().monogamy;
     }
 
     public double getCoverageA() {
-    	List<MatchingIndices> matches = getMatchingIndices();
-    	BitSet matchedRows  = new BitSet(M.rows());
-    	for (MatchingIndices m: matches) {
-    		matchedRows.set(m.a);
-    	}
-    	return (double)matchedRows.cardinality() / (double)A.length;
+    	return getStatistics().coverageA;
     }
 
     public double getCoverageB() {
-    	List<MatchingIndices> matches = getMatchingIndices();
-    	BitSet matchedRows  = new BitSet(M.columns());
-    	for (MatchingIndices m: matches) {
-    		matchedRows.set(m.b);
-    	}
-    	return (double)matchedRows.cardinality() / (double)B.length;
+    	return getStatistics().coverageB;
     }
 
     public double getBestCoverage() {
-    	return max(getCoverageA(), getCoverageB());
+    	return getStatistics().getBestCoverage();
     }
 
+    public MappingStatistics getStatistics() {
+    	return getStatistics(DEFAULT_HISTOGRAM_BINS);
+    }
 
-    protected DoubleMatrix2D partnerMatrix(final DoubleMatrix2D mat) {
-    	int n = mat.rows();
-    	int m = mat.columns();
-    	final IntMatrix2D entries = IntFactory2D.dense.make(n, m, 1);
-    	entries.forEachNonZero(new IntIntIntFunction() {
-    		@Override
-			public int apply(int x, int y, int v) {
-				if (mat.getQuick(x, y) > 0.0)
-					return 1;
-				else
-					return 0;
+	/**
+	 * Computes monogamy, both coverages and a histogram of the positive cells
+	 * with bins bins from one pass over the nonzero cells, in memory
+	 * proportional to their number and the rows and columns. Coverages are
+	 * relative to the labels, or to the rows and columns if there are none.
+	 * Dense, compact, sparse and top-k matrices are all supported.
+	 */
+	public MappingStatistics getStatistics(int bins) {
+		if (bins < 1)
+			throw new IllegalArgumentException("bins must be positive: " + bins);
+		IntArrayList rl = new IntArrayList();
+		IntArrayList cl = new IntArrayList();
+		DoubleArrayList vl = new DoubleArrayList();
+		getNonZeros(rl, cl, vl);
+		int nonZeros = rl.size();
+		int[] rows = rl.elements();
+		int[] columns = cl.elements();
+		double[] values = vl.elements();
+
+		int[] rowPositives = new int[M.rows()];
+		int[] columnPositives = new int[M.columns()];
+		BitSet matchedRows = new BitSet(M.rows());
+		BitSet matchedColumns = new BitSet(M.columns());
+		long[] histogram = new long[bins];
+		for (int k = 0; k < nonZeros; k++) {
+			matchedRows.set(rows[k]);
+			matchedColumns.set(columns[k]);
+			if (values[k] > 0.0) {
+				rowPositives[rows[k]]++;
+				columnPositives[columns[k]]++;
+				histogram[bin(values[k], bins)]++;
 			}
-    	});
-
-    	final int[] rowSums = new int[n];
-    	final int[] colSums = new int[m];
-    	for (int i=0; i<n; i++) {
-    		rowSums[i] = entries.viewRow(i).zSum();
-    	}
-    	for (int i=0; i<m; i++) {
-    		colSums[i] = entries.viewColumn(i).zSum();
-    	}
-
-    	DoubleMatrix2D partnerMatrix = DoubleFactory2D.dense.make(n, m, 1.0);
-    	partnerMatrix.forEachNonZero(new IntIntDoubleFunction() {
-			@Override
-			public double apply(int x, int y, double v) {
-				if (entries.getQuick(x, y) > 0)
-					return rowSums[x] + colSums[y] - 1.0;
-				else
-					return 1.0;
+		}
+
+		// cells that are not positive count with their value, as they always did
+		double shares = 0.0;
+		for (int k = 0; k < nonZeros; k++) {
+			double v = values[k];
+			shares += v > 0.0 ? v / (rowPositives[rows[k]] + columnPositives[columns[k]] - 1.0)
+					: v;
+		}
+		double monogamy = shares / max(M.rows(), M.columns());
+		double coverageA = (double) matchedRows.cardinality()
+				/ (double) (A != null ? A.length : M.rows());
+		double coverageB = (double) matchedColumns.cardinality()
+				/ (double) (B != null ? B.length : M.columns());
+		return new MappingStatistics(nonZeros, monogamy, coverageA, coverageB, histogram);
+	}
+
+	/**
+	 * The histogram bin of a positive value. Bins are bounded by i / bins; v *
+	 * bins may round across such a bound, by one bin at most.
+	 */
+	private static int bin(double v, int bins) {
+		int bin = min((int) (v * bins), bins - 1);
+		if (bin + 1 < bins && v >= (bin + 1) / (double) bins)
+			bin++;
+		else if (bin > 0 && v < bin / (double) bins)
+			bin--;
+		return bin;
+	}
+
+	/**
+	 * Collects the nonzero cells in row-major order. Row-compressed matrices are
+	 * read straight from their arrays instead of probing every cell.
+	 */
+	protected void getNonZeros(IntArrayList rl, IntArrayList cl, DoubleArrayList vl) {
+		if (!(M instanceof SparseRCDoubleMatrix2D)) {
+			M.getNonZeros(rl, cl, vl);
+			return;
+		}
+		SparseRCDoubleMatrix2D S = (SparseRCDoubleMatrix2D) M;
+		if (!S.hasColumnIndexesSorted())
+			S.sortColumnIndexes();
+		int[] rowPointers = S.getRowPointers();
+		int[] columnIndexes = S.getColumnIndexes();
+		double[] values = S.getValues();
+		rl.clear();
+		cl.clear();
+		vl.clear();
+		for (int r = 0; r < S.rows(); r++) {
+			for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+				if (values[k] != 0.0) {
+					rl.add(r);
+					cl.add(columnIndexes[k]);
+					vl.add(values[k]);
+				}
 			}
-	    });
-    	return partnerMatrix;
-    }
+		}
+	}
+
+	/**
+	 * Builds a row-compressed sparse matrix holding values for the candidate
+	 * pairs. Pairs with a value of zero are not stored.
+	 */
+	protected static DoubleMatrix2D sparse(CandidatePairs candidates, double[] values) {
+		int[] rowIndexes = new int[candidates.size()];
+		for (int r = 0; r < candidates.rows; r++) {
+			for (int k = candidates.rowPointers[r]; k < candidates.rowPointers[r + 1]; k++) {
+				rowIndexes[k] = r;
+			}
+		}
+		return sparse(candidates.rows, candidates.columns, rowIndexes,
+				candidates.columnIndexes, values, true, false);
+	}
+
+	/**
+	 * Builds a row-compressed sparse matrix from cells given in coordinate form.
+	 * Cells must be in row-major order unless sortColumns is set.
+	 */
+	protected static SparseRCDoubleMatrix2D sparse(int rows, int columns,
+			int[] rowIndexes, int[] columnIndexes, double[] values,
+			boolean removeZeroes, boolean sortColumns) {
+		if (values.length == 0)
+			return new SparseRCDoubleMatrix2D(rows, columns, 0);
+		return new SparseRCDoubleMatrix2D(rows, columns, rowIndexes,
+				columnIndexes, values, false, removeZeroes, sortColumns);
+	}
+
+	/**
+	 * Keeps every cell x with x >= max(rowMax - delta, colMax - delta) and sets
+	 * all others to zero, where rowMax and colMax are the maxima of its row and
+	 * column, implicit zeros of sparse matrices included. Needs one pass to
+	 * collect the maxima and one to apply them, both row by row; large dense
+	 * matrices are split into blocks of rows processed concurrently on the pool
+	 * of tools, one block per thread.
+	 */
+	protected void selectNearMaxima(final double delta) {
+		final int rows = M.rows();
+		final int columns = M.columns();
+		if (rows == 0 || columns == 0)
+			return;
+		if (M instanceof SparseRCDoubleMatrix2D) {
+			selectNearMaximaSparse(delta);
+			return;
+		}
+
+		final double[] rowMax = new double[rows];
+		final double[] colMax = new double[columns];
+		Arrays.fill(colMax, Double.NEGATIVE_INFINITY);
+		TileExecutor executor = tools.tileExecutor();
+		int nthreads = min(executor.parallelism(), rows);
+		if (nthreads > 1 && (long) rows * columns >= PARALLEL_SELECTION_CELLS) {
+			final int blockSize = (rows + nthreads - 1) / nthreads;
+			final double[][] partialColMax = new double[(rows + blockSize - 1) / blockSize][];
+			executor.forEachBlock(rows, blockSize, new TileExecutor.BlockFunction() {
+				@Override
+				public void apply(int from, int to) {
+					double[] partial = new double[columns];
+					Arrays.fill(partial, Double.NEGATIVE_INFINITY);
+					maxima(from, to, rowMax, partial);
+					partialColMax[from / blockSize] = partial;
+				}
+			});
+			for (double[] partial : partialColMax) {
+				for (int c = 0; c < columns; c++) {
+					if (partial[c] > colMax[c])
+						colMax[c] = partial[c];
+				}
+			}
+			executor.forEachBlock(rows, blockSize, new TileExecutor.BlockFunction() {
+				@Override
+				public void apply(int from, int to) {
+					retainNearMaxima(from, to, rowMax, colMax, delta);
+				}
+			});
+		} else {
+			maxima(0, rows, rowMax, colMax);
+			retainNearMaxima(0, rows, rowMax, colMax, delta);
+		}
+	}
 
-	protected DoubleMatrix2D maxima(DoubleMatrix2D m) {
-		DoubleMatrix2D rowMaxima = DoubleFactory2D.dense.make(m.rows(), 1);
-		for (int i = 0; i < m.rows(); i++) {
-			rowMaxima.setQuick(i, 0, m.viewRow(i).getMaxLocation()[0]);
+	/**
+	 * Sets rowMax of rows [firstRow, lastRow) and raises colMax to their column
+	 * maxima.
+	 */
+	private void maxima(int firstRow, int lastRow, double[] rowMax, double[] colMax) {
+		int columns = M.columns();
+		for (int r = firstRow; r < lastRow; r++) {
+			double max = M.getQuick(r, 0);
+			for (int c = 0; c < columns; c++) {
+				double v = M.getQuick(r, c);
+				if (v > max)
+					max = v;
+				if (v > colMax[c])
+					colMax[c] = v;
+			}
+			rowMax[r] = max;
 		}
-		return DoubleFactory2D.dense.repeat(rowMaxima, 1, m.columns());
 	}
 
-	protected DoubleMatrix2D matMax(DoubleMatrix2D a, DoubleMatrix2D b) {
-		return a.assign(b, new DoubleDoubleFunction() {
-			@Override
-			public double apply(double x, double y) {
-				return max(x, y);
+	private void retainNearMaxima(int firstRow, int lastRow, double[] rowMax,
+			double[] colMax, double delta) {
+		int columns = M.columns();
+		for (int r = firstRow; r < lastRow; r++) {
+			double rowThreshold = rowMax[r] - delta;
+			for (int c = 0; c < columns; c++) {
+				double v = M.getQuick(r, c);
+				if (v != 0.0 && !(v >= max(rowThreshold, colMax[c] - delta)))
+					M.setQuick(r, c, 0.0);
 			}
-		});
+		}
 	}
 
-	protected void selectWhereLarger(DoubleMatrix2D b) {
-		M.assign(b, new DoubleDoubleFunction() {
-			@Override
-			public double apply(double x, double y) {
-				if (x >= y)
-					return x;
-				else
-					return 0.0;
+	private void selectNearMaximaSparse(double delta) {
+		SparseRCDoubleMatrix2D S = (SparseRCDoubleMatrix2D) M;
+		int rows = S.rows();
+		int columns = S.columns();
+		int[] rowPointers = S.getRowPointers();
+		int[] columnIndexes = S.getColumnIndexes();
+		double[] values = S.getValues();
+
+		double[] rowMax = new double[rows];
+		double[] colMax = new double[columns];
+		int[] colCounts = new int[columns];
+		Arrays.fill(colMax, Double.NEGATIVE_INFINITY);
+		for (int r = 0; r < rows; r++) {
+			// a row with fewer stored cells than columns has implicit zeros
+			double max = rowPointers[r + 1] - rowPointers[r] < columns ? 0.0
+					: Double.NEGATIVE_INFINITY;
+			for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+				double v = values[k];
+				int c = columnIndexes[k];
+				if (v > max)
+					max = v;
+				if (v > colMax[c])
+					colMax[c] = v;
+				colCounts[c]++;
 			}
-		});
+			rowMax[r] = max;
+		}
+		for (int c = 0; c < columns; c++) {
+			if (colCounts[c] < rows && colMax[c] < 0.0)
+				colMax[c] = 0.0;
+		}
+
+		for (int r = 0; r < rows; r++) {
+			double rowThreshold = rowMax[r] - delta;
+			for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+				if (!(values[k] >= max(rowThreshold, colMax[columnIndexes[k]] - delta)))
+					values[k] = 0.0;
+			}
+		}
 	}
 
 	protected class Maximum {
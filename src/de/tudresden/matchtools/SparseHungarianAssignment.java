@@ -0,0 +1,206 @@
+package de.tudresden.matchtools;
+
+import java.util.Arrays;
+
+/**
+ * Maximum-weight bipartite assignment over a sparse, row-compressed matrix,
+ * computed with the Hungarian method in its shortest augmenting path form.
+ *
+ * Every row additionally owns a private "unassigned" object of weight zero, so
+ * rows are never forced onto a cell and the problem becomes a minimum-cost
+ * assignment of all rows, with costs -weight. Rows are added one at a time;
+ * each one runs a Dijkstra search over reduced costs, restricted to the cells
+ * reachable through alternating paths, until it reaches a free object. Only
+ * those cells are ever visited, so sparse problems stay cheap even when they
+ * are large.
+ */
+class SparseHungarianAssignment {
+	private final int rows;
+	private final int columns;
+	private final int[] rowPointers;
+	private final int[] columnIndexes;
+	private final double[] values;
+
+	// dual variables of the objects: columns first, then one per row
+	private final double[] v;
+	private final int[] owner;
+	private final int[] assignedObject;
+	private final int[] assignedCell;
+	private final double[] assignedWeight;
+
+	// Dijkstra state, reset after every row through the touched list
+	private final double[] dist;
+	private final int[] predRow;
+	private final int[] predCell;
+	private final boolean[] settled;
+	private int[] touched;
+	private int touchedSize;
+	private double[] heapKeys;
+	private int[] heapObjects;
+	private int heapSize;
+
+	/**
+	 * @param rowPointers cells of row r are rowPointers[r] .. rowPointers[r+1]-1
+	 */
+	SparseHungarianAssignment(int rows, int columns, int[] rowPointers,
+			int[] columnIndexes, double[] values) {
+		this.rows = rows;
+		this.columns = columns;
+		this.rowPointers = rowPointers;
+		this.columnIndexes = columnIndexes;
+		this.values = values;
+
+		int objects = columns + rows;
+		this.v = new double[objects];
+		this.owner = new int[objects];
+		this.assignedObject = new int[rows];
+		this.assignedCell = new int[rows];
+		this.assignedWeight = new double[rows];
+		this.dist = new double[objects];
+		this.predRow = new int[objects];
+		this.predCell = new int[objects];
+		this.settled = new boolean[objects];
+		this.touched = new int[16];
+		this.heapKeys = new double[16];
+		this.heapObjects = new int[16];
+	}
+
+	/**
+	 * Returns, for every row, the index of its assigned cell in columnIndexes,
+	 * or -1 if the row stays unassigned.
+	 */
+	int[] solve() {
+		Arrays.fill(owner, -1);
+		Arrays.fill(assignedObject, -1);
+		Arrays.fill(assignedCell, -1);
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+		for (int i = 0; i < rows; i++) {
+			// potential of the new row: large enough to keep all its reduced costs >= 0
+			double p = v[columns + i];
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				if (values[k] > 0.0)
+					p = Math.max(p, v[columnIndexes[k]] + values[k]);
+			}
+			relax(i, p, 0.0);
+
+			int end = -1;
+			double length = 0.0;
+			while (heapSize > 0) {
+				double d = heapKeys[0];
+				int o = pollHeap();
+				if (settled[o] || d > dist[o])
+					continue;
+				settled[o] = true;
+				if (owner[o] < 0) {
+					end = o;
+					length = d;
+					break;
+				}
+				int r = owner[o];
+				// the matched cell of r is tight, which determines r's potential
+				relax(r, v[o] + assignedWeight[r], d);
+			}
+
+			for (int t = 0; t < touchedSize; t++) {
+				int o = touched[t];
+				if (settled[o])
+					v[o] += dist[o] - length;
+			}
+			augment(i, end);
+
+			for (int t = 0; t < touchedSize; t++) {
+				int o = touched[t];
+				dist[o] = Double.POSITIVE_INFINITY;
+				settled[o] = false;
+			}
+			touchedSize = 0;
+			heapSize = 0;
+		}
+		return assignedCell;
+	}
+
+	private void relax(int r, double p, double base) {
+		for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+			if (values[k] > 0.0)
+				reach(r, k, columnIndexes[k], base + reducedCost(-values[k], p, columnIndexes[k]));
+		}
+		int self = columns + r;
+		reach(r, -1, self, base + reducedCost(0.0, p, self));
+	}
+
+	private double reducedCost(double cost, double p, int o) {
+		double rc = cost + p - v[o];
+		// rounding may push tight cells slightly below zero
+		return rc < 0.0 ? 0.0 : rc;
+	}
+
+	private void reach(int r, int k, int o, double d) {
+		if (settled[o] || d >= dist[o])
+			return;
+		if (dist[o] == Double.POSITIVE_INFINITY) {
+			if (touchedSize == touched.length)
+				touched = Arrays.copyOf(touched, touchedSize * 2);
+			touched[touchedSize++] = o;
+		}
+		dist[o] = d;
+		predRow[o] = r;
+		predCell[o] = k;
+		pushHeap(d, o);
+	}
+
+	private void augment(int i, int o) {
+		while (true) {
+			int r = predRow[o];
+			int previous = assignedObject[r];
+			owner[o] = r;
+			assignedObject[r] = o;
+			assignedCell[r] = predCell[o];
+			assignedWeight[r] = predCell[o] >= 0 ? values[predCell[o]] : 0.0;
+			if (r == i)
+				return;
+			o = previous;
+		}
+	}
+
+	private void pushHeap(double key, int o) {
+		if (heapSize == heapKeys.length) {
+			heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+			heapObjects = Arrays.copyOf(heapObjects, heapSize * 2);
+		}
+		int pos = heapSize++;
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (heapKeys[parent] <= key)
+				break;
+			heapKeys[pos] = heapKeys[parent];
+			heapObjects[pos] = heapObjects[parent];
+			pos = parent;
+		}
+		heapKeys[pos] = key;
+		heapObjects[pos] = o;
+	}
+
+	private int pollHeap() {
+		int top = heapObjects[0];
+		heapSize--;
+		double key = heapKeys[heapSize];
+		int o = heapObjects[heapSize];
+		int pos = 0;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child])
+				child++;
+			if (key <= heapKeys[child])
+				break;
+			heapKeys[pos] = heapKeys[child];
+			heapObjects[pos] = heapObjects[child];
+			pos = child;
+		}
+		heapKeys[pos] = key;
+		heapObjects[pos] = o;
+		return top;
+	}
+}
@@ -0,0 +1,80 @@
+package de.tudresden.matchtools;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import de.tudresden.matchtools.matrix.CompactDoubleMatrix2D;
+import de.tudresden.matchtools.matrix.FloatCellStorage;
+import de.tudresden.matchtools.matrix.Quantized16CellStorage;
+import de.tudresden.matchtools.matrix.Quantized8CellStorage;
+
+/**
+ * How the cells of dense similarity matrices are stored. The reduced modes
+ * trade precision for memory and bandwidth; all SimMatrix selections and
+ * aggregations work on them. Selections see the rounded values, so cells
+ * within the rounding error of a threshold, and pairs that rounding makes tie,
+ * may be selected differently than with DOUBLE.
+ */
+public enum StorageMode {
+	/** 64-bit doubles, exact. */
+	DOUBLE(8) {
+		@Override
+		public DoubleMatrix2D make(int rows, int columns) {
+			return DoubleFactory2D.dense.make(rows, columns);
+		}
+	},
+	/** 32-bit floats, half the memory, relative error at most 6e-8. */
+	FLOAT(4) {
+		@Override
+		public DoubleMatrix2D make(int rows, int columns) {
+			return new CompactDoubleMatrix2D(rows, columns,
+					new FloatCellStorage(size(rows, columns)));
+		}
+	},
+	/**
+	 * 16-bit steps of 1/65535, a quarter of the memory, error at most 7.7e-6.
+	 * Values are clamped to [0, 1].
+	 */
+	QUANTIZED_16(2) {
+		@Override
+		public DoubleMatrix2D make(int rows, int columns) {
+			return new CompactDoubleMatrix2D(rows, columns,
+					new Quantized16CellStorage(size(rows, columns)));
+		}
+	},
+	/**
+	 * 8-bit steps of 1/255, an eighth of the memory, error at most 0.002.
+	 * Values are clamped to [0, 1].
+	 */
+	QUANTIZED_8(1) {
+		@Override
+		public DoubleMatrix2D make(int rows, int columns) {
+			return new CompactDoubleMatrix2D(rows, columns,
+					new Quantized8CellStorage(size(rows, columns)));
+		}
+	};
+
+	private final int bytesPerCell;
+
+	private StorageMode(int bytesPerCell) {
+		this.bytesPerCell = bytesPerCell;
+	}
+
+	/**
+	 * The memory a cell of a dense matrix of this mode takes.
+	 */
+	public int bytesPerCell() {
+		return bytesPerCell;
+	}
+
+	/**
+	 * A new rows x columns matrix of this mode, all zero.
+	 */
+	public abstract DoubleMatrix2D make(int rows, int columns);
+
+	private static int size(int rows, int columns) {
+		long size = (long) rows * columns;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("matrix too large: " + rows + "x" + columns);
+		return (int) size;
+	}
+}
@@ -0,0 +1,245 @@
+package de.tudresden.matchtools;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import de.tudresden.matchtools.datastructures.CandidatePairs;
+
+/**
+ * Fills the cells of a matrix tile by tile. Tiles are square blocks of
+ * <code>tileSize</code> rows and columns, so that the inputs touched by one tile
+ * stay in cache while it is computed. With a pool, tiles are distributed over the
+ * pool's workers, otherwise they are computed in the calling thread. An
+ * executor created with a cancel flag skips the remaining tiles and rows once
+ * the flag is set, and the call throws a CancellationException.
+ */
+class TileExecutor {
+
+	public interface CellFunction {
+		public double apply(int x, int y);
+	}
+
+	public interface RowFunction {
+		public void apply(int x);
+	}
+
+	public interface BlockFunction {
+		public void apply(int from, int to);
+	}
+
+	protected final ForkJoinPool pool;
+	protected final int tileSize;
+	protected final AtomicBoolean cancelled;
+
+	public TileExecutor(ForkJoinPool pool, int tileSize) {
+		this(pool, tileSize, null);
+	}
+
+	/**
+	 * An executor that stops once cancelled is set, or never if it is null.
+	 */
+	public TileExecutor(ForkJoinPool pool, int tileSize, AtomicBoolean cancelled) {
+		if (tileSize < 1)
+			throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+		this.pool = pool;
+		this.tileSize = tileSize;
+		this.cancelled = cancelled;
+	}
+
+	public void fill(DoubleMatrix2D m, CellFunction f) {
+		fill(m, 0, m.rows(), 0, m.columns(), f);
+	}
+
+	/**
+	 * Fills rows [rowFrom, rowTo) x columns [colFrom, colTo) of m.
+	 */
+	public void fill(DoubleMatrix2D m, int rowFrom, int rowTo, int colFrom,
+			int colTo, CellFunction f) {
+		if (rowTo <= rowFrom || colTo <= colFrom)
+			return;
+		TileTask task = new TileTask(m, f, rowFrom, rowTo, colFrom, colTo);
+		if (pool == null || task.tiles() == 1 || !invoke(task))
+			task.computeTiles(0, task.tiles());
+	}
+
+	/**
+	 * Computes f for every candidate pair and returns the values in the order
+	 * of candidates.columnIndexes.
+	 */
+	public double[] fill(final CandidatePairs candidates, final CellFunction f) {
+		final double[] values = new double[candidates.size()];
+		forEachRow(candidates.rows, new RowFunction() {
+			@Override
+			public void apply(int x) {
+				int[] columnIndexes = candidates.columnIndexes;
+				for (int k = candidates.rowPointers[x]; k < candidates.rowPointers[x + 1]; k++) {
+					values[k] = f.apply(x, columnIndexes[k]);
+				}
+			}
+		});
+		return values;
+	}
+
+	/**
+	 * Calls f for rows 0 .. rows-1, tileSize rows at a time. Each row is handled
+	 * by exactly one thread.
+	 */
+	public void forEachRow(int rows, final RowFunction f) {
+		forEachBlock(rows, tileSize, new BlockFunction() {
+			@Override
+			public void apply(int from, int to) {
+				for (int x = from; x < to; x++) {
+					checkCancelled();
+					f.apply(x);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Splits rows 0 .. rows-1 into blocks of blockSize rows, the last one
+	 * possibly shorter, and calls f once per block with its rows [from, to).
+	 */
+	public void forEachBlock(int rows, int blockSize, BlockFunction f) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		int blocks = (int) ((rows + (long) blockSize - 1) / blockSize);
+		if (blocks == 0)
+			return;
+		RowBlockTask task = new RowBlockTask(rows, blockSize, f, 0, blocks);
+		if (pool == null || blocks == 1 || !invoke(task))
+			task.computeBlocks(0, blocks);
+	}
+
+	/**
+	 * Runs task on the pool, or returns false if the pool has been shut down
+	 * meanwhile, by MatchTools.setParallelism, and did not start it.
+	 */
+	protected boolean invoke(ForkJoinTask<?> task) {
+		try {
+			pool.invoke(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			if (!pool.isShutdown())
+				throw e;
+			return false;
+		}
+	}
+
+	/**
+	 * The number of threads the work is spread over.
+	 */
+	public int parallelism() {
+		return pool == null ? 1 : pool.getParallelism();
+	}
+
+	protected void checkCancelled() {
+		if (cancelled != null && cancelled.get())
+			throw new CancellationException("cancelled");
+	}
+
+	protected class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final DoubleMatrix2D m;
+		final CellFunction f;
+		final int rowFrom, rowTo, colFrom, colTo;
+		final int tileCols;
+		final int from, to;
+
+		TileTask(DoubleMatrix2D m, CellFunction f, int rowFrom, int rowTo,
+				int colFrom, int colTo) {
+			this.m = m;
+			this.f = f;
+			this.rowFrom = rowFrom;
+			this.rowTo = rowTo;
+			this.colFrom = colFrom;
+			this.colTo = colTo;
+			this.tileCols = (colTo - colFrom + tileSize - 1) / tileSize;
+			int tileRows = (rowTo - rowFrom + tileSize - 1) / tileSize;
+			this.from = 0;
+			this.to = tileRows * tileCols;
+		}
+
+		TileTask(TileTask parent, int from, int to) {
+			this.m = parent.m;
+			this.f = parent.f;
+			this.rowFrom = parent.rowFrom;
+			this.rowTo = parent.rowTo;
+			this.colFrom = parent.colFrom;
+			this.colTo = parent.colTo;
+			this.tileCols = parent.tileCols;
+			this.from = from;
+			this.to = to;
+		}
+
+		int tiles() {
+			return to - from;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				computeTiles(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(this, from, mid), new TileTask(this, mid, to));
+		}
+
+		void computeTiles(int first, int last) {
+			for (int t = first; t < last; t++) {
+				checkCancelled();
+				int x0 = rowFrom + (t / tileCols) * tileSize;
+				int y0 = colFrom + (t % tileCols) * tileSize;
+				int x1 = Math.min(x0 + tileSize, rowTo);
+				int y1 = Math.min(y0 + tileSize, colTo);
+				for (int x = x0; x < x1; x++) {
+					for (int y = y0; y < y1; y++) {
+						m.setQuick(x, y, f.apply(x, y));
+					}
+				}
+			}
+		}
+	}
+
+	protected class RowBlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final int rows;
+		final int blockSize;
+		final BlockFunction f;
+		final int from, to;
+
+		RowBlockTask(int rows, int blockSize, BlockFunction f, int from, int to) {
+			this.rows = rows;
+			this.blockSize = blockSize;
+			this.f = f;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				computeBlocks(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RowBlockTask(rows, blockSize, f, from, mid),
+					new RowBlockTask(rows, blockSize, f, mid, to));
+		}
+
+		void computeBlocks(int first, int last) {
+			for (int b = first; b < last; b++) {
+				int x0 = b * blockSize;
+				f.apply(x0, Math.min(x0 + blockSize, rows));
+			}
+		}
+	}
+}
@@ -0,0 +1,8 @@
+package de.tudresden.matchtools.blocking;
+
+import de.tudresden.matchtools.datastructures.CandidatePairs;
+import de.tudresden.matchtools.datastructures.PreparedString;
+
+public interface Blocker {
+	public abstract CandidatePairs candidates(PreparedString[] a, PreparedString[] b);
+}
@@ -0,0 +1,82 @@
+package de.tudresden.matchtools.blocking;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import cern.colt.list.tint.IntArrayList;
+import de.tudresden.matchtools.datastructures.CandidatePairs;
+import de.tudresden.matchtools.datastructures.PreparedString;
+
+/**
+ * Blocks on keys derived from the words of a PreparedString. An inverted index
+ * from key to b is built once, and every a is paired with the b's sharing at
+ * least minShared distinct keys with it.
+ */
+public abstract class InvertedIndexBlocker implements Blocker {
+	protected int minShared;
+
+	public InvertedIndexBlocker(int minShared) {
+		super();
+		if (minShared < 1)
+			throw new IllegalArgumentException("minShared must be positive: " + minShared);
+		this.minShared = minShared;
+	}
+
+	/**
+	 * Adds the blocking keys of s to keys.
+	 */
+	protected abstract void keys(PreparedString s, Set<String> keys);
+
+	@Override
+	public CandidatePairs candidates(PreparedString[] a, PreparedString[] b) {
+		Set<String> keys = new HashSet<>();
+		Map<String, IntArrayList> postingLists = new HashMap<>();
+		for (int j = 0; j < b.length; j++) {
+			keys.clear();
+			keys(b[j], keys);
+			for (String key : keys) {
+				IntArrayList postings = postingLists.get(key);
+				if (postings == null) {
+					postings = new IntArrayList(4);
+					postingLists.put(key, postings);
+				}
+				postings.add(j);
+			}
+		}
+
+		int[] rowPointers = new int[a.length + 1];
+		IntArrayList columnIndexes = new IntArrayList();
+		int[] shared = new int[b.length];
+		IntArrayList touched = new IntArrayList();
+		for (int i = 0; i < a.length; i++) {
+			keys.clear();
+			keys(a[i], keys);
+			for (String key : keys) {
+				IntArrayList postings = postingLists.get(key);
+				if (postings == null)
+					continue;
+				int[] elements = postings.elements();
+				for (int p = 0; p < postings.size(); p++) {
+					int j = elements[p];
+					if (shared[j]++ == 0)
+						touched.add(j);
+				}
+			}
+			int[] touchedElements = touched.elements();
+			Arrays.sort(touchedElements, 0, touched.size());
+			for (int p = 0; p < touched.size(); p++) {
+				int j = touchedElements[p];
+				if (shared[j] >= minShared)
+					columnIndexes.add(j);
+				shared[j] = 0;
+			}
+			touched.clear();
+			rowPointers[i + 1] = columnIndexes.size();
+		}
+		columnIndexes.trimToSize();
+		return new CandidatePairs(a.length, b.length, rowPointers, columnIndexes.elements());
+	}
+}
@@ -0,0 +1,40 @@
+package de.tudresden.matchtools.blocking;
+
+import java.util.Set;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+
+/**
+ * Pairs strings whose words share at least minShared character q-grams. Unlike
+ * the TokenBlocker, this keeps pairs of slightly misspelled words together.
+ * Words shorter than q are used as a gram of their own.
+ */
+public class QGramBlocker extends InvertedIndexBlocker {
+	protected int q;
+
+	public QGramBlocker() {
+		this(3, 2);
+	}
+
+	public QGramBlocker(int q, int minShared) {
+		super(minShared);
+		if (q < 1)
+			throw new IllegalArgumentException("q must be positive: " + q);
+		this.q = q;
+	}
+
+	@Override
+	protected void keys(PreparedString s, Set<String> keys) {
+		for (String w : s.words) {
+			if (w.isEmpty())
+				continue;
+			if (w.length() <= q) {
+				keys.add(w);
+				continue;
+			}
+			for (int i = 0; i + q <= w.length(); i++) {
+				keys.add(w.substring(i, i + q));
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package de.tudresden.matchtools.blocking;
+
+import java.util.Set;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+
+/**
+ * Pairs strings that share at least minShared words.
+ */
+public class TokenBlocker extends InvertedIndexBlocker {
+
+	public TokenBlocker() {
+		this(1);
+	}
+
+	public TokenBlocker(int minShared) {
+		super(minShared);
+	}
+
+	@Override
+	protected void keys(PreparedString s, Set<String> keys) {
+		for (String w : s.words) {
+			if (!w.isEmpty())
+				keys.add(w);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package de.tudresden.matchtools.datastructures;
+
+/**
+ * Pairs (a, b) selected for scoring, in compressed row form: the candidates of
+ * row a are columnIndexes[rowPointers[a]] .. columnIndexes[rowPointers[a+1]-1],
+ * sorted ascending.
+ */
+public class CandidatePairs {
+	public int rows;
+	public int columns;
+	public int[] rowPointers;
+	public int[] columnIndexes;
+
+	public CandidatePairs(int rows, int columns, int[] rowPointers, int[] columnIndexes) {
+		super();
+		this.rows = rows;
+		this.columns = columns;
+		this.rowPointers = rowPointers;
+		this.columnIndexes = columnIndexes;
+	}
+
+	public int size() {
+		return rowPointers[rows];
+	}
+
+	public String toString() {
+		return String.format("CandidatePairs{%dx%d, %d pairs}", rows, columns, size());
+	}
+}
@@ -0,0 +1,41 @@
+package de.tudresden.matchtools.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Quality figures of a mapping, as computed by SimMatrix.getStatistics.
+ */
+public class MappingStatistics {
+	/** number of nonzero cells */
+	public int nonZeros;
+	/** see SimMatrix.getMonogamy */
+	public double monogamy;
+	/** share of the strings of a, or rows, with a nonzero cell */
+	public double coverageA;
+	/** share of the strings of b, or columns, with a nonzero cell */
+	public double coverageB;
+	/**
+	 * counts of the positive cells in equally wide bins over (0, 1], with
+	 * larger values in the last bin
+	 */
+	public long[] histogram;
+
+	public MappingStatistics(int nonZeros, double monogamy, double coverageA,
+			double coverageB, long[] histogram) {
+		super();
+		this.nonZeros = nonZeros;
+		this.monogamy = monogamy;
+		this.coverageA = coverageA;
+		this.coverageB = coverageB;
+		this.histogram = histogram;
+	}
+
+	public double getBestCoverage() {
+		return Math.max(coverageA, coverageB);
+	}
+
+	public String toString() {
+		return String.format("MappingStatistics{%d nonzeros, monogamy %.3f, coverage %.3f/%.3f, histogram %s}",
+				nonZeros, monogamy, coverageA, coverageB, Arrays.toString(histogram));
+	}
+}
@@ -0,0 +1,108 @@
+package de.tudresden.matchtools.datastructures;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A MinHash sketch of a set: for each of size hash functions, the smallest
+ * hash of any element. The fraction of hash functions on which two sketches
+ * agree estimates the Jaccard similarity of their sets, with a standard error
+ * of about 1/sqrt(size). Sketches are only comparable if they have the same
+ * size; the hash functions are fixed, so sketches may be built independently.
+ */
+public class MinHashSketch {
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	public long[] minima;
+
+	public MinHashSketch(int size) {
+		super();
+		if (size < 1)
+			throw new IllegalArgumentException("size must be positive: " + size);
+		this.minima = new long[size];
+		Arrays.fill(minima, Long.MAX_VALUE);
+	}
+
+	public MinHashSketch(int size, Collection<String> values) {
+		this(size);
+		for (String value : values) {
+			add(value);
+		}
+	}
+
+	public MinHashSketch(int size, int[] values) {
+		this(size);
+		for (int value : values) {
+			add(value);
+		}
+	}
+
+	public void add(String value) {
+		// 64-bit FNV-1a, String.hashCode collides too often for large sets
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		add(h);
+	}
+
+	public void add(long value) {
+		long base = mix(value);
+		for (int i = 0; i < minima.length; i++) {
+			long h = mix(base + (i + 1) * GOLDEN);
+			if (h < minima[i])
+				minima[i] = h;
+		}
+	}
+
+	/**
+	 * Adds all elements of other's set, so this becomes the sketch of the union.
+	 */
+	public void merge(MinHashSketch other) {
+		checkSize(other);
+		for (int i = 0; i < minima.length; i++) {
+			if (other.minima[i] < minima[i])
+				minima[i] = other.minima[i];
+		}
+	}
+
+	/**
+	 * The estimated Jaccard similarity of the sketched sets. Two sketches of
+	 * empty sets have similarity 0.
+	 */
+	public double jaccard(MinHashSketch other) {
+		checkSize(other);
+		int equal = 0;
+		int empty = 0;
+		for (int i = 0; i < minima.length; i++) {
+			if (minima[i] == other.minima[i]) {
+				if (minima[i] == Long.MAX_VALUE)
+					empty++;
+				else
+					equal++;
+			}
+		}
+		return empty == minima.length ? 0.0 : (double) equal / minima.length;
+	}
+
+	public int size() {
+		return minima.length;
+	}
+
+	private void checkSize(MinHashSketch other) {
+		if (other.minima.length != minima.length)
+			throw new IllegalArgumentException("sketch sizes differ: " + minima.length
+					+ " and " + other.minima.length);
+	}
+
+	// the finalizer of SplitMix64
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public String toString() {
+		return String.format("MinHashSketch{%d}", minima.length);
+	}
+}
@@ -0,0 +1,155 @@
+package de.tudresden.matchtools.datastructures;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import cern.colt.list.tint.IntArrayList;
+import de.tudresden.matchtools.similarities.BoundedLevenshtein;
+
+/**
+ * A table prepared once for many locate calls: its cells as PreparedStrings and
+ * an inverted index from every word to the cells containing it. Rows may have
+ * different lengths. Instances are not modified after construction and can be
+ * shared between threads.
+ *
+ * Cells are numbered row by row; the cells of row r are
+ * rowPointers[r] .. rowPointers[r+1]-1. The distinct words are sorted by
+ * length, words of length l being tokens[lengthPointers[l]] ..
+ * tokens[lengthPointers[l+1]-1], and the cells containing token t are
+ * postings[postingPointers[t]] .. postings[postingPointers[t+1]-1], ascending.
+ */
+public class PreparedHaystack {
+	public final String[][] haystack;
+	public final int rows;
+	public final int columns;
+	public final int[] rowPointers;
+	public final int[] cellRows;
+	public final PreparedString[] cells;
+
+	public final String[] tokens;
+	public final int[] lengthPointers;
+	public final int[] postingPointers;
+	public final int[] postings;
+
+	/**
+	 * @param cells the prepared cells of haystack, row by row
+	 */
+	public PreparedHaystack(String[][] haystack, PreparedString[] cells) {
+		super();
+		this.haystack = haystack;
+		this.rows = haystack.length;
+		this.rowPointers = new int[rows + 1];
+		int columns = 0;
+		for (int r = 0; r < rows; r++) {
+			rowPointers[r + 1] = rowPointers[r] + haystack[r].length;
+			columns = Math.max(columns, haystack[r].length);
+		}
+		this.columns = columns;
+		if (cells.length != rowPointers[rows])
+			throw new IllegalArgumentException("expected " + rowPointers[rows]
+					+ " prepared cells, got " + cells.length);
+		this.cells = cells;
+		this.cellRows = new int[cells.length];
+		for (int r = 0; r < rows; r++) {
+			Arrays.fill(cellRows, rowPointers[r], rowPointers[r + 1], r);
+		}
+
+		Map<String, IntArrayList> postingLists = new HashMap<>();
+		int maxLength = 0;
+		for (int c = 0; c < cells.length; c++) {
+			for (String word : cells[c].words) {
+				IntArrayList cellList = postingLists.get(word);
+				if (cellList == null) {
+					cellList = new IntArrayList(4);
+					postingLists.put(word, cellList);
+					maxLength = Math.max(maxLength, word.length());
+				}
+				// cells are visited in order, so a repeated word ends the list
+				if (cellList.isEmpty() || cellList.getQuick(cellList.size() - 1) != c)
+					cellList.add(c);
+			}
+		}
+
+		this.lengthPointers = new int[maxLength + 2];
+		for (String word : postingLists.keySet()) {
+			lengthPointers[word.length() + 1]++;
+		}
+		for (int l = 0; l <= maxLength; l++) {
+			lengthPointers[l + 1] += lengthPointers[l];
+		}
+		this.tokens = new String[postingLists.size()];
+		int[] next = Arrays.copyOf(lengthPointers, maxLength + 1);
+		int total = 0;
+		for (Map.Entry<String, IntArrayList> e : postingLists.entrySet()) {
+			tokens[next[e.getKey().length()]++] = e.getKey();
+			total += e.getValue().size();
+		}
+
+		this.postingPointers = new int[tokens.length + 1];
+		this.postings = new int[total];
+		for (int t = 0; t < tokens.length; t++) {
+			IntArrayList cellList = postingLists.get(tokens[t]);
+			System.arraycopy(cellList.elements(), 0, postings, postingPointers[t],
+					cellList.size());
+			postingPointers[t + 1] = postingPointers[t] + cellList.size();
+		}
+	}
+
+	public int size() {
+		return cells.length;
+	}
+
+	public int column(int cell) {
+		return cell - rowPointers[cellRows[cell]];
+	}
+
+	/**
+	 * The largest word length of the vocabulary.
+	 */
+	public int maxTokenLength() {
+		return lengthPointers.length - 2;
+	}
+
+	/**
+	 * Returns the ascending, distinct cells containing a word that ld matches
+	 * with one of words. Tokens whose length alone rules out a match are
+	 * skipped.
+	 */
+	public int[] candidates(String[] words, BoundedLevenshtein ld) {
+		IntArrayList found = new IntArrayList();
+		int maxTokenLength = maxTokenLength();
+		for (String word : words) {
+			int n = word.length();
+			for (int l = 0; l <= maxTokenLength; l++) {
+				if (lengthPointers[l] == lengthPointers[l + 1])
+					continue;
+				int k = ld.maxDistance(Math.max(n, l));
+				if (k < 0 || Math.abs(n - l) > k)
+					continue;
+				for (int t = lengthPointers[l]; t < lengthPointers[l + 1]; t++) {
+					if (!ld.matches(word, tokens[t]))
+						continue;
+					for (int p = postingPointers[t]; p < postingPointers[t + 1]; p++) {
+						found.add(postings[p]);
+					}
+				}
+			}
+		}
+		if (found.isEmpty())
+			return new int[0];
+		int[] elements = found.elements();
+		Arrays.sort(elements, 0, found.size());
+		int size = 1;
+		for (int i = 1; i < found.size(); i++) {
+			if (elements[i] != elements[size - 1])
+				elements[size++] = elements[i];
+		}
+		return Arrays.copyOf(elements, size);
+	}
+
+	public String toString() {
+		return String.format("PreparedHaystack{%d rows, %d cells, %d tokens}", rows,
+				cells.length, tokens.length);
+	}
+}
@@ -9,6 +9,12 @@ public class PreparedString {
 	public double[] weights;
 	public String string;
 	public double weightSum;
+	/** ids of the words in dictionary, or null if prepared without one */
+	public int[] tokenIds;
+	public TokenDictionary dictionary;
+	/** sorted hashed n-grams of string, or null if not computed */
+	public int[] ngrams;
+	public int ngramSize;
 
 	public PreparedString(String s, Weighter weighter) {
 		super();
@@ -25,6 +31,60 @@ public class PreparedString {
 		}
 	}
 
+	/**
+	 * Restores a string prepared earlier from its words and their weights.
+	 */
+	public PreparedString(String s, String[] words, double[] weights) {
+		super();
+		this.string = s;
+		this.words = words;
+		this.weights = weights;
+		for (int j = 0; j < weights.length; j++) {
+			weightSum += weights[j];
+		}
+	}
+
+	public PreparedString(String s, Weighter weighter, TokenDictionary dictionary) {
+		this(s, weighter);
+		this.dictionary = dictionary;
+		this.tokenIds = new int[words.length];
+		for (int j = 0; j < words.length; j++) {
+			tokenIds[j] = dictionary.id(words[j]);
+		}
+	}
+
+	/**
+	 * Computes the n-gram profile of this string, see ngramProfile.
+	 */
+	public void computeNGrams(int n) {
+		this.ngrams = ngramProfile(string, n);
+		this.ngramSize = n;
+	}
+
+	/**
+	 * The n-grams of s padded with n-1 zero characters on both sides, each
+	 * packed into an int, sorted ascending. Grams of up to two characters are
+	 * packed exactly, longer ones are hashed. The empty string has no grams.
+	 */
+	public static int[] ngramProfile(String s, int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("n must be positive: " + n);
+		int length = s.length();
+		if (length == 0)
+			return new int[0];
+		int[] grams = new int[length + n - 1];
+		for (int g = 0; g < grams.length; g++) {
+			int h = n <= 2 ? 0 : 0x811c9dc5;
+			for (int i = g - n + 1; i <= g; i++) {
+				char c = i < 0 || i >= length ? 0 : s.charAt(i);
+				h = n <= 2 ? (h << 16) | c : (h ^ c) * 0x01000193;
+			}
+			grams[g] = h;
+		}
+		Arrays.sort(grams);
+		return grams;
+	}
+
 	public String toString() {
 		return String.format("PreparedString{%s}[%s]", this.string, Arrays.toString(this.weights));
 	}
@@ -0,0 +1,86 @@
+package de.tudresden.matchtools.datastructures;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer ids to words, so that PreparedStrings prepared with the
+ * same dictionary can refer to equal words by equal ids. Ids are never reused
+ * or reassigned, and lookups of known words do not lock.
+ *
+ * A dictionary keeps every word it has assigned an id for as long as it is
+ * reachable. Dictionaries that outlive a single match run, like the one of a
+ * shared MatchTools, should therefore be created with a maximum size; once it
+ * is reached, new words get NONE instead of an id.
+ */
+public class TokenDictionary {
+	/** the id of new words once the dictionary is full */
+	public static final int NONE = -1;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private final int maxSize;
+
+	public TokenDictionary() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * A dictionary that assigns ids to at most maxSize words.
+	 */
+	public TokenDictionary(int maxSize) {
+		super();
+		if (maxSize < 0)
+			throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The id of word, or NONE if it is new and the dictionary is full.
+	 */
+	public int id(String word) {
+		Integer id = ids.get(word);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(word);
+			if (id == null) {
+				if (ids.size() >= maxSize)
+					return NONE;
+				id = ids.size();
+				ids.put(word, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * The distinct ids of words, sorted ascending. Throws an
+	 * IllegalStateException if the dictionary is too full to assign them.
+	 */
+	public int[] ids(Collection<String> words) {
+		int[] result = new int[words.size()];
+		int size = 0;
+		for (String word : words) {
+			int id = id(word);
+			if (id == NONE)
+				throw new IllegalStateException("dictionary full: " + maxSize + " words");
+			result[size++] = id;
+		}
+		Arrays.sort(result);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || result[i] != result[distinct - 1])
+				result[distinct++] = result[i];
+		}
+		return distinct == size ? result : Arrays.copyOf(result, distinct);
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
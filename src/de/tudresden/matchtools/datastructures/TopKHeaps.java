@@ -0,0 +1,113 @@
+package de.tudresden.matchtools.datastructures;
+
+/**
+ * The k best (index, score) pairs of every row, kept as one bounded min-heap
+ * per row in flat primitive arrays. Row r occupies slots r*k .. r*k+size(r)-1
+ * of indexes and scores. Different rows may be offered to from different
+ * threads, a single row only from one thread at a time.
+ */
+public class TopKHeaps {
+	public int rows;
+	public int k;
+	public int[] sizes;
+	public int[] indexes;
+	public double[] scores;
+
+	public TopKHeaps(int rows, int k) {
+		super();
+		if (k < 1)
+			throw new IllegalArgumentException("k must be positive: " + k);
+		this.rows = rows;
+		this.k = k;
+		this.sizes = new int[rows];
+		this.indexes = new int[rows * k];
+		this.scores = new double[rows * k];
+	}
+
+	/**
+	 * Offers a candidate to a row. Returns true if it is among the row's k best
+	 * so far. On equal scores, the candidate with the lower index is kept.
+	 */
+	public boolean offer(int row, int index, double score) {
+		int base = row * k;
+		int size = sizes[row];
+		if (size < k) {
+			// sift up
+			int pos = size;
+			while (pos > 0) {
+				int parent = (pos - 1) >>> 1;
+				if (!lower(score, index, scores[base + parent], indexes[base + parent]))
+					break;
+				scores[base + pos] = scores[base + parent];
+				indexes[base + pos] = indexes[base + parent];
+				pos = parent;
+			}
+			scores[base + pos] = score;
+			indexes[base + pos] = index;
+			sizes[row] = size + 1;
+			return true;
+		}
+		if (!lower(scores[base], indexes[base], score, index))
+			return false;
+		// replace the minimum and sift down
+		int pos = 0;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= k)
+				break;
+			if (child + 1 < k && lower(scores[base + child + 1], indexes[base + child + 1],
+					scores[base + child], indexes[base + child]))
+				child++;
+			if (!lower(scores[base + child], indexes[base + child], score, index))
+				break;
+			scores[base + pos] = scores[base + child];
+			indexes[base + pos] = indexes[base + child];
+			pos = child;
+		}
+		scores[base + pos] = score;
+		indexes[base + pos] = index;
+		return true;
+	}
+
+	/**
+	 * The heap order: lower scores first, and of equal scores the higher index.
+	 */
+	private static boolean lower(double score, int index, double otherScore, int otherIndex) {
+		return score < otherScore || (score == otherScore && index > otherIndex);
+	}
+
+	public int size(int row) {
+		return sizes[row];
+	}
+
+	/**
+	 * The smallest score a new candidate of row has to beat, or negative
+	 * infinity while the row holds fewer than k candidates.
+	 */
+	public double bound(int row) {
+		return sizes[row] < k ? Double.NEGATIVE_INFINITY : scores[row * k];
+	}
+
+	/**
+	 * Orders the entries of every row by ascending index. Afterwards the rows
+	 * are no longer heaps and must not be offered to.
+	 */
+	public void sortByIndex() {
+		for (int r = 0; r < rows; r++) {
+			int base = r * k;
+			// insertion sort, k is small
+			for (int i = base + 1; i < base + sizes[r]; i++) {
+				int index = indexes[i];
+				double score = scores[i];
+				int j = i - 1;
+				while (j >= base && indexes[j] > index) {
+					indexes[j + 1] = indexes[j];
+					scores[j + 1] = scores[j];
+					j--;
+				}
+				indexes[j + 1] = index;
+				scores[j + 1] = score;
+			}
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package de.tudresden.matchtools.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+
+/**
+ * PreparedStrings stored in a binary file, memory-mapped and decoded one at a
+ * time on first access. Opening a file only reads its offset tables, so its
+ * cost does not depend on the number of strings. Instances are read-only and
+ * can be shared between threads.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * int magic, int version, int count, int reserved
+ * count records: int length, length bytes UTF-8 string,
+ *                int words, words x int token, words x double weight,
+ *                int n-gram size (0 without profile), int grams, grams x int gram
+ * tokens: UTF-8 bytes of the distinct words, in order of first use
+ * int[count + 1] record offsets
+ * int[tokens + 1] token offsets
+ * int tokens, int record offsets position, int token offsets position
+ * </pre>
+ * Words are stored once and referenced by their index. N-gram profiles
+ * (PreparedString.computeNGrams) are stored with their strings and restored on
+ * decoding. Files are limited to 2 GB, the size of a single mapping. Version 1
+ * files, which had no profiles, can still be read.
+ */
+public class PreparedStringFile extends AbstractList<PreparedString> implements
+		RandomAccess {
+	protected static final int MAGIC = 0x4D545053; // "MTPS"
+	protected static final int VERSION = 2;
+	protected static final int HEADER_SIZE = 16;
+	protected static final int TRAILER_SIZE = 12;
+
+	protected final ByteBuffer buffer;
+	protected final TokenDictionary dictionary;
+	protected final int version;
+	protected final int count;
+	protected final int tokenCount;
+	protected final int recordOffsets;
+	protected final int tokenOffsets;
+	protected final AtomicReferenceArray<String> tokens;
+	protected final AtomicReferenceArray<PreparedString> strings;
+
+	protected PreparedStringFile(ByteBuffer buffer, TokenDictionary dictionary)
+			throws IOException {
+		super();
+		this.buffer = buffer;
+		this.dictionary = dictionary;
+		if (buffer.capacity() < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("not a prepared string file");
+		this.version = buffer.getInt(4);
+		if (version != 1 && version != VERSION)
+			throw new IOException("unsupported prepared string file version " + version);
+		this.count = buffer.getInt(8);
+		int trailer = buffer.capacity() - TRAILER_SIZE;
+		this.tokenCount = buffer.getInt(trailer);
+		this.recordOffsets = buffer.getInt(trailer + 4);
+		this.tokenOffsets = buffer.getInt(trailer + 8);
+		this.tokens = new AtomicReferenceArray<>(tokenCount);
+		this.strings = new AtomicReferenceArray<>(count);
+	}
+
+	/**
+	 * Maps a file written by write. Strings are decoded without token ids.
+	 */
+	public static PreparedStringFile open(File file) throws IOException {
+		return open(file, null);
+	}
+
+	/**
+	 * Maps a file written by write. If dictionary is not null, decoded strings
+	 * carry the ids of their words in it, as if prepared with it.
+	 */
+	public static PreparedStringFile open(File file, TokenDictionary dictionary)
+			throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("file too large to map: " + file);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return new PreparedStringFile(buffer, dictionary);
+		}
+	}
+
+	public static void write(File file, PreparedString[] strings) throws IOException {
+		Map<String, Integer> tokenIndexes = new HashMap<>();
+		List<String> tokenList = new ArrayList<>();
+		int[] recordPositions = new int[strings.length + 1];
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(strings.length);
+			out.writeInt(0);
+			for (int i = 0; i < strings.length; i++) {
+				PreparedString s = strings[i];
+				recordPositions[i] = out.size();
+				byte[] bytes = s.string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(s.words.length);
+				for (String word : s.words) {
+					Integer index = tokenIndexes.get(word);
+					if (index == null) {
+						index = tokenList.size();
+						tokenIndexes.put(word, index);
+						tokenList.add(word);
+					}
+					out.writeInt(index);
+				}
+				for (double weight : s.weights) {
+					out.writeDouble(weight);
+				}
+				if (s.ngrams == null) {
+					out.writeInt(0);
+					out.writeInt(0);
+				} else {
+					out.writeInt(s.ngramSize);
+					out.writeInt(s.ngrams.length);
+					for (int gram : s.ngrams) {
+						out.writeInt(gram);
+					}
+				}
+				checkSize(out);
+			}
+			recordPositions[strings.length] = out.size();
+
+			int[] tokenPositions = new int[tokenList.size() + 1];
+			for (int t = 0; t < tokenList.size(); t++) {
+				tokenPositions[t] = out.size();
+				out.write(tokenList.get(t).getBytes(StandardCharsets.UTF_8));
+				checkSize(out);
+			}
+			tokenPositions[tokenList.size()] = out.size();
+
+			int recordOffsets = out.size();
+			for (int position : recordPositions) {
+				out.writeInt(position);
+			}
+			int tokenOffsets = out.size();
+			for (int position : tokenPositions) {
+				out.writeInt(position);
+			}
+			out.writeInt(tokenList.size());
+			out.writeInt(recordOffsets);
+			out.writeInt(tokenOffsets);
+			checkSize(out);
+		}
+	}
+
+	private static void checkSize(DataOutputStream out) throws IOException {
+		// DataOutputStream.size saturates at Integer.MAX_VALUE
+		if (out.size() >= Integer.MAX_VALUE - TRAILER_SIZE)
+			throw new IOException("prepared strings exceed 2 GB");
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public PreparedString get(int i) {
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+		PreparedString s = strings.get(i);
+		if (s == null) {
+			s = decode(i);
+			if (!strings.compareAndSet(i, null, s))
+				s = strings.get(i);
+		}
+		return s;
+	}
+
+	/**
+	 * Decodes all strings.
+	 */
+	public PreparedString[] toArray() {
+		PreparedString[] result = new PreparedString[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = get(i);
+		}
+		return result;
+	}
+
+	protected PreparedString decode(int i) {
+		int position = buffer.getInt(recordOffsets + 4 * i);
+		int length = buffer.getInt(position);
+		String string = utf8(position + 4, length);
+		position += 4 + length;
+		int wordCount = buffer.getInt(position);
+		position += 4;
+		String[] words = new String[wordCount];
+		int[] tokenIds = dictionary == null ? null : new int[wordCount];
+		for (int j = 0; j < wordCount; j++) {
+			words[j] = token(buffer.getInt(position + 4 * j));
+			if (tokenIds != null)
+				tokenIds[j] = dictionary.id(words[j]);
+		}
+		position += 4 * wordCount;
+		double[] weights = new double[wordCount];
+		for (int j = 0; j < wordCount; j++) {
+			weights[j] = buffer.getDouble(position + 8 * j);
+		}
+		position += 8 * wordCount;
+
+		PreparedString s = new PreparedString(string, words, weights);
+		s.tokenIds = tokenIds;
+		s.dictionary = tokenIds == null ? null : dictionary;
+		if (version > 1 && buffer.getInt(position) > 0) {
+			int[] ngrams = new int[buffer.getInt(position + 4)];
+			for (int j = 0; j < ngrams.length; j++) {
+				ngrams[j] = buffer.getInt(position + 8 + 4 * j);
+			}
+			s.ngrams = ngrams;
+			s.ngramSize = buffer.getInt(position);
+		}
+		return s;
+	}
+
+	protected String token(int t) {
+		String token = tokens.get(t);
+		if (token == null) {
+			int from = buffer.getInt(tokenOffsets + 4 * t);
+			int to = buffer.getInt(tokenOffsets + 4 * (t + 1));
+			token = utf8(from, to - from);
+			if (!tokens.compareAndSet(t, null, token))
+				token = tokens.get(t);
+		}
+		return token;
+	}
+
+	private String utf8(int position, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
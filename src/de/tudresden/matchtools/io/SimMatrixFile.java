@@ -0,0 +1,213 @@
+package de.tudresden.matchtools.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseRCDoubleMatrix2D;
+import de.tudresden.matchtools.SimMatrix;
+import de.tudresden.matchtools.matrix.BufferCellStorage;
+import de.tudresden.matchtools.matrix.CellStorage;
+import de.tudresden.matchtools.matrix.CompactDoubleMatrix2D;
+
+/**
+ * Stores a SimMatrix with its labels in a binary file. Sparse matrices are
+ * stored in their row-compressed form, all others densely, each cell at the
+ * width of the matrix's storage mode (see StorageMode): 8-byte doubles, 4-byte
+ * floats, or the 16- or 8-bit steps of the quantized modes.
+ *
+ * Reading maps the file. Dense matrices are read as a CompactDoubleMatrix2D
+ * that wraps the mapping, so cells are only paged in when used. The mapping is
+ * private: changes to the matrix, e.g. by selections, are copied on write and
+ * never reach the file. Files that are not writable cannot be mapped that way,
+ * their cells are copied to the heap instead. The file must not be changed
+ * while a matrix read from it is in use. Sparse matrices are copied with one
+ * bulk transfer per section into the arrays that back them.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * int magic, int version, int rows, int columns,
+ * int kind (0 dense, 1 sparse), int nonzeros, int flags (1 has A, 2 has B),
+ * int bytes per cell (8 double, 4 float, 2 and 1 quantized, see StorageMode)
+ * dense:  rows x columns cells, row by row
+ * sparse: nonzeros x double values, int[rows + 1] row pointers, nonzeros x int column indexes
+ * A, B if present: int count, int[count + 1] offsets into the following UTF-8 bytes, bytes
+ * </pre>
+ * Null labels are read back as empty strings. Files are limited to 2 GB, the
+ * size of a single mapping. Version 1 files, which stored all cells as
+ * doubles, can still be read.
+ */
+public class SimMatrixFile {
+	protected static final int MAGIC = 0x4D54534D; // "MTSM"
+	protected static final int VERSION = 2;
+	protected static final int HEADER_SIZE = 32;
+	protected static final int DENSE = 0;
+	protected static final int SPARSE = 1;
+	protected static final int HAS_A = 1;
+	protected static final int HAS_B = 2;
+
+	private SimMatrixFile() {
+	}
+
+	public static void write(File file, SimMatrix m) throws IOException {
+		DoubleMatrix2D M = m.getM();
+		int rows = M.rows();
+		int columns = M.columns();
+		SparseRCDoubleMatrix2D sparse = null;
+		if (M instanceof SparseRCDoubleMatrix2D) {
+			sparse = (SparseRCDoubleMatrix2D) M;
+			if (!sparse.hasColumnIndexesSorted())
+				sparse.sortColumnIndexes();
+		}
+		int nonZeros = sparse == null ? 0 : sparse.getRowPointers()[rows];
+		int bytesPerCell = M instanceof CompactDoubleMatrix2D ? ((CompactDoubleMatrix2D) M)
+				.getCells().bytesPerCell() : 8;
+		long size = HEADER_SIZE + (sparse == null ? (long) bytesPerCell * rows * columns
+				: 12L * nonZeros + 4L * (rows + 1));
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("matrix too large for a single mapping: " + rows + "x"
+					+ columns);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(rows);
+			out.writeInt(columns);
+			out.writeInt(sparse == null ? DENSE : SPARSE);
+			out.writeInt(nonZeros);
+			out.writeInt((m.getA() != null ? HAS_A : 0) | (m.getB() != null ? HAS_B : 0));
+			out.writeInt(sparse == null ? bytesPerCell : 8);
+			if (sparse == null) {
+				// encodes each row like the storage read back will
+				ByteBuffer row = ByteBuffer.allocate(bytesPerCell * columns);
+				CellStorage rowCells = new BufferCellStorage(row, 0, columns, bytesPerCell);
+				for (int r = 0; r < rows; r++) {
+					for (int c = 0; c < columns; c++) {
+						rowCells.set(c, M.getQuick(r, c));
+					}
+					out.write(row.array());
+				}
+			} else {
+				double[] values = sparse.getValues();
+				for (int k = 0; k < nonZeros; k++) {
+					out.writeDouble(values[k]);
+				}
+				for (int rowPointer : sparse.getRowPointers()) {
+					out.writeInt(rowPointer);
+				}
+				int[] columnIndexes = sparse.getColumnIndexes();
+				for (int k = 0; k < nonZeros; k++) {
+					out.writeInt(columnIndexes[k]);
+				}
+			}
+			if (m.getA() != null)
+				writeLabels(out, m.getA());
+			if (m.getB() != null)
+				writeLabels(out, m.getB());
+			if (out.size() == Integer.MAX_VALUE)
+				throw new IOException("labels too large for a single mapping");
+		}
+	}
+
+	private static void writeLabels(DataOutputStream out, String[] labels)
+			throws IOException {
+		byte[][] bytes = new byte[labels.length][];
+		out.writeInt(labels.length);
+		int offset = 0;
+		out.writeInt(offset);
+		for (int i = 0; i < labels.length; i++) {
+			bytes[i] = labels[i] == null ? new byte[0] : labels[i].getBytes(StandardCharsets.UTF_8);
+			offset += bytes[i].length;
+			out.writeInt(offset);
+		}
+		for (byte[] label : bytes) {
+			out.write(label);
+		}
+	}
+
+	public static SimMatrix read(File file) throws IOException {
+		ByteBuffer buffer;
+		boolean writable = file.canWrite();
+		try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("file too large to map: " + file);
+			buffer = channel.map(writable ? FileChannel.MapMode.PRIVATE
+					: FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("not a similarity matrix file: " + file);
+		int version = buffer.getInt(4);
+		if (version != 1 && version != VERSION)
+			throw new IOException("unsupported similarity matrix file version " + version);
+		int rows = buffer.getInt(8);
+		int columns = buffer.getInt(12);
+		int kind = buffer.getInt(16);
+		int nonZeros = buffer.getInt(20);
+		int flags = buffer.getInt(24);
+		int bytesPerCell = version == 1 ? 8 : buffer.getInt(28);
+
+		buffer.position(HEADER_SIZE);
+		DoubleMatrix2D M;
+		if (kind == DENSE) {
+			if (bytesPerCell != 8 && bytesPerCell != 4 && bytesPerCell != 2
+					&& bytesPerCell != 1)
+				throw new IOException("unknown cell size " + bytesPerCell);
+			if (HEADER_SIZE + (long) rows * columns * bytesPerCell > buffer.capacity())
+				throw new IOException("truncated similarity matrix file: " + file);
+			int length = rows * columns * bytesPerCell;
+			ByteBuffer cells = buffer;
+			int offset = HEADER_SIZE;
+			if (buffer.isReadOnly()) {
+				ByteBuffer section = buffer.duplicate();
+				section.limit(HEADER_SIZE + length);
+				cells = ByteBuffer.allocate(length);
+				cells.put(section);
+				offset = 0;
+			}
+			M = new CompactDoubleMatrix2D(rows, columns, new BufferCellStorage(cells,
+					offset, rows * columns, bytesPerCell));
+			buffer.position(HEADER_SIZE + length);
+		} else if (kind == SPARSE) {
+			double[] values = new double[nonZeros];
+			buffer.asDoubleBuffer().get(values);
+			buffer.position(buffer.position() + 8 * nonZeros);
+			int[] rowPointers = new int[rows + 1];
+			buffer.asIntBuffer().get(rowPointers);
+			buffer.position(buffer.position() + 4 * rowPointers.length);
+			int[] columnIndexes = new int[nonZeros];
+			buffer.asIntBuffer().get(columnIndexes);
+			buffer.position(buffer.position() + 4 * nonZeros);
+			M = new SparseRCDoubleMatrix2D(rows, columns, rowPointers, columnIndexes, values);
+		} else {
+			throw new IOException("unknown matrix kind " + kind);
+		}
+
+		String[] a = (flags & HAS_A) != 0 ? readLabels(buffer) : null;
+		String[] b = (flags & HAS_B) != 0 ? readLabels(buffer) : null;
+		return new SimMatrix(M, a, b);
+	}
+
+	private static String[] readLabels(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		int[] offsets = new int[count + 1];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + 4 * offsets.length);
+		byte[] bytes = new byte[offsets[count]];
+		buffer.get(bytes);
+		String[] labels = new String[count];
+		for (int i = 0; i < count; i++) {
+			labels[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i],
+					StandardCharsets.UTF_8);
+		}
+		return labels;
+	}
+}
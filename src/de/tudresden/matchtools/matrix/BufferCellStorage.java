@@ -0,0 +1,107 @@
+package de.tudresden.matchtools.matrix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores cells in a ByteBuffer, typically a file mapping, encoded like one of
+ * the array storages, chosen by the bytes per cell: 8 for doubles, 4 for
+ * floats, 2 and 1 for 16- and 8-bit quantized similarities. Cells are read and
+ * written at absolute positions, so the buffer's position and limit are not
+ * used. New storages of the same kind (like) are backed by heap buffers.
+ */
+public class BufferCellStorage extends CellStorage {
+	protected final ByteBuffer buffer;
+	protected final int offset;
+	protected final int size;
+	protected final int bytesPerCell;
+
+	/**
+	 * Cells in size x bytesPerCell bytes of buffer from offset on.
+	 */
+	public BufferCellStorage(ByteBuffer buffer, int offset, int size, int bytesPerCell) {
+		super();
+		if (bytesPerCell != 8 && bytesPerCell != 4 && bytesPerCell != 2
+				&& bytesPerCell != 1)
+			throw new IllegalArgumentException("unsupported cell size " + bytesPerCell);
+		if (offset < 0 || offset + (long) size * bytesPerCell > buffer.capacity())
+			throw new IllegalArgumentException("buffer of capacity " + buffer.capacity()
+					+ " too small for " + size + " cells at " + offset);
+		this.buffer = buffer;
+		this.offset = offset;
+		this.size = size;
+		this.bytesPerCell = bytesPerCell;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double get(int index) {
+		int position = offset + index * bytesPerCell;
+		switch (bytesPerCell) {
+		case 8:
+			return buffer.getDouble(position);
+		case 4:
+			return buffer.getFloat(position);
+		case 2:
+			return Quantized16CellStorage.decode(buffer.getChar(position));
+		default:
+			return Quantized8CellStorage.decode(buffer.get(position));
+		}
+	}
+
+	@Override
+	public void set(int index, double value) {
+		int position = offset + index * bytesPerCell;
+		switch (bytesPerCell) {
+		case 8:
+			buffer.putDouble(position, value);
+			break;
+		case 4:
+			buffer.putFloat(position, (float) value);
+			break;
+		case 2:
+			buffer.putChar(position, Quantized16CellStorage.encode(value));
+			break;
+		default:
+			buffer.put(position, Quantized8CellStorage.encode(value));
+		}
+	}
+
+	@Override
+	public CellStorage like(int size) {
+		return new BufferCellStorage(ByteBuffer.allocate(size * bytesPerCell), 0, size,
+				bytesPerCell);
+	}
+
+	@Override
+	public ByteBuffer elements() {
+		return buffer;
+	}
+
+	@Override
+	public int bytesPerCell() {
+		return bytesPerCell;
+	}
+
+	@Override
+	public double precision() {
+		switch (bytesPerCell) {
+		case 8:
+			return 0.0;
+		case 4:
+			return 0x1.0p-24;
+		case 2:
+			return 0.5 / Quantized16CellStorage.STEPS;
+		default:
+			return 0.5 / Quantized8CellStorage.STEPS;
+		}
+	}
+
+	@Override
+	public boolean isBounded() {
+		return bytesPerCell <= 2;
+	}
+}
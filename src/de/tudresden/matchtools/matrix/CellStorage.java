@@ -0,0 +1,41 @@
+package de.tudresden.matchtools.matrix;
+
+/**
+ * The flat array behind a CompactDoubleMatrix2D or CompactDoubleMatrix1D,
+ * storing each cell in fewer than 64 bits. Writes to distinct cells may happen
+ * concurrently.
+ */
+public abstract class CellStorage {
+
+	public abstract int size();
+
+	public abstract double get(int index);
+
+	public abstract void set(int index, double value);
+
+	/**
+	 * A new storage of the same kind with size cells, all zero.
+	 */
+	public abstract CellStorage like(int size);
+
+	/**
+	 * The backing array, or buffer.
+	 */
+	public abstract Object elements();
+
+	/**
+	 * The memory a cell takes.
+	 */
+	public abstract int bytesPerCell();
+
+	/**
+	 * The largest difference between a similarity in [0, 1] and the value read
+	 * back after storing it.
+	 */
+	public abstract double precision();
+
+	/**
+	 * Whether values outside [0, 1] are clamped to it.
+	 */
+	public abstract boolean isBounded();
+}
@@ -0,0 +1,128 @@
+package de.tudresden.matchtools.matrix;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.DoubleMatrix3D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix3D;
+
+/**
+ * A vector whose cells are kept in a CellStorage, mostly a row or column view
+ * of a CompactDoubleMatrix2D. Selection views share the storage. Reshaping
+ * into three dimensions returns a DenseDoubleMatrix3D, as there is no compact
+ * one.
+ */
+public class CompactDoubleMatrix1D extends DoubleMatrix1D {
+	private static final long serialVersionUID = 1L;
+
+	protected CellStorage cells;
+
+	public CompactDoubleMatrix1D(int size, CellStorage cells) {
+		this(size, cells, 0, 1, false);
+	}
+
+	protected CompactDoubleMatrix1D(int size, CellStorage cells, int zero, int stride,
+			boolean isView) {
+		super();
+		if (!isView && size > cells.size())
+			throw new IllegalArgumentException("storage of size " + cells.size()
+					+ " too small for " + size);
+		setUp(size, zero, stride);
+		this.cells = cells;
+		this.isNoView = !isView;
+	}
+
+	public CellStorage getCells() {
+		return cells;
+	}
+
+	@Override
+	public Object elements() {
+		return cells.elements();
+	}
+
+	@Override
+	public double getQuick(int index) {
+		return cells.get(zero + index * stride);
+	}
+
+	@Override
+	public void setQuick(int index, double value) {
+		cells.set(zero + index * stride, value);
+	}
+
+	@Override
+	public DoubleMatrix1D like(int size) {
+		return new CompactDoubleMatrix1D(size, cells.like(size));
+	}
+
+	@Override
+	public DoubleMatrix2D like2D(int rows, int columns) {
+		return new CompactDoubleMatrix2D(rows, columns, cells.like(rows * columns));
+	}
+
+	/**
+	 * Fills the matrix column by column, the inverse of vectorize.
+	 */
+	@Override
+	public DoubleMatrix2D reshape(int rows, int columns) {
+		return reshape(this, rows, columns);
+	}
+
+	/**
+	 * Fills a DenseDoubleMatrix3D slice by slice, each column by column, like
+	 * DenseDoubleMatrix1D does.
+	 */
+	@Override
+	public DoubleMatrix3D reshape(int slices, int rows, int columns) {
+		return reshape(this, slices, rows, columns);
+	}
+
+	@Override
+	protected DoubleMatrix1D viewSelectionLike(int[] offsets) {
+		return new SelectedCompactDoubleMatrix1D(cells, offsets);
+	}
+
+	@Override
+	protected boolean haveSharedCellsRaw(DoubleMatrix1D other) {
+		return storage(other) == cells;
+	}
+
+	static DoubleMatrix2D reshape(DoubleMatrix1D v, int rows, int columns) {
+		if (rows * columns != v.size())
+			throw new IllegalArgumentException("rows*columns != size");
+		DoubleMatrix2D M = v.like2D(rows, columns);
+		int index = 0;
+		for (int c = 0; c < columns; c++) {
+			for (int r = 0; r < rows; r++) {
+				M.setQuick(r, c, v.getQuick(index++));
+			}
+		}
+		return M;
+	}
+
+	static DoubleMatrix3D reshape(DoubleMatrix1D v, int slices, int rows, int columns) {
+		if (slices * rows * columns != v.size())
+			throw new IllegalArgumentException("slices*rows*columns != size");
+		DoubleMatrix3D M = new DenseDoubleMatrix3D(slices, rows, columns);
+		int index = 0;
+		for (int s = 0; s < slices; s++) {
+			for (int c = 0; c < columns; c++) {
+				for (int r = 0; r < rows; r++) {
+					M.setQuick(s, r, c, v.getQuick(index++));
+				}
+			}
+		}
+		return M;
+	}
+
+	/**
+	 * The storage of a compact vector or a view of one, otherwise null.
+	 */
+	static CellStorage storage(DoubleMatrix1D v) {
+		if (v instanceof CompactDoubleMatrix1D)
+			return ((CompactDoubleMatrix1D) v).cells;
+		if (v instanceof SelectedCompactDoubleMatrix1D)
+			return ((SelectedCompactDoubleMatrix1D) v).cells;
+		return null;
+	}
+}
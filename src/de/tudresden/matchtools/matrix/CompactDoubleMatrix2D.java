@@ -0,0 +1,102 @@
+package de.tudresden.matchtools.matrix;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A dense matrix whose cells are kept in a CellStorage of reduced precision,
+ * e.g. floats or quantized similarities, to save memory and bandwidth on large
+ * similarity matrices. Cells are read and written as doubles, so all Colt
+ * operations work unchanged. Row, column, part, dice and selection views share
+ * the storage. Cells are laid out row by row.
+ */
+public class CompactDoubleMatrix2D extends DoubleMatrix2D {
+	private static final long serialVersionUID = 1L;
+
+	protected CellStorage cells;
+
+	public CompactDoubleMatrix2D(int rows, int columns, CellStorage cells) {
+		this(rows, columns, cells, 0, 0, columns, 1, false);
+	}
+
+	protected CompactDoubleMatrix2D(int rows, int columns, CellStorage cells,
+			int rowZero, int columnZero, int rowStride, int columnStride, boolean isView) {
+		super();
+		if (!isView && (long) rows * columns > cells.size())
+			throw new IllegalArgumentException("storage of size " + cells.size()
+					+ " too small for " + rows + "x" + columns);
+		setUp(rows, columns, rowZero, columnZero, rowStride, columnStride);
+		this.cells = cells;
+		this.isNoView = !isView;
+	}
+
+	public CellStorage getCells() {
+		return cells;
+	}
+
+	@Override
+	public Object elements() {
+		return cells.elements();
+	}
+
+	@Override
+	public double getQuick(int row, int column) {
+		return cells.get(rowZero + row * rowStride + columnZero + column * columnStride);
+	}
+
+	@Override
+	public void setQuick(int row, int column, double value) {
+		cells.set(rowZero + row * rowStride + columnZero + column * columnStride, value);
+	}
+
+	@Override
+	public DoubleMatrix2D like(int rows, int columns) {
+		return new CompactDoubleMatrix2D(rows, columns, cells.like(rows * columns));
+	}
+
+	@Override
+	public DoubleMatrix1D like1D(int size) {
+		return new CompactDoubleMatrix1D(size, cells.like(size));
+	}
+
+	@Override
+	protected DoubleMatrix1D like1D(int size, int zero, int stride) {
+		return new CompactDoubleMatrix1D(size, cells, zero, stride, true);
+	}
+
+	/**
+	 * Stacks the columns on top of each other, like DenseDoubleMatrix2D does.
+	 */
+	@Override
+	public DoubleMatrix1D vectorize() {
+		DoubleMatrix1D v = like1D(rows * columns);
+		int index = 0;
+		for (int c = 0; c < columns; c++) {
+			for (int r = 0; r < rows; r++) {
+				v.setQuick(index++, getQuick(r, c));
+			}
+		}
+		return v;
+	}
+
+	@Override
+	protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets, int[] columnOffsets) {
+		return new SelectedCompactDoubleMatrix2D(cells, rowOffsets, columnOffsets);
+	}
+
+	@Override
+	protected boolean haveSharedCellsRaw(DoubleMatrix2D other) {
+		return storage(other) == cells;
+	}
+
+	/**
+	 * The storage of a compact matrix or a view of one, otherwise null.
+	 */
+	static CellStorage storage(DoubleMatrix2D m) {
+		if (m instanceof CompactDoubleMatrix2D)
+			return ((CompactDoubleMatrix2D) m).cells;
+		if (m instanceof SelectedCompactDoubleMatrix2D)
+			return ((SelectedCompactDoubleMatrix2D) m).cells;
+		return null;
+	}
+}
@@ -0,0 +1,59 @@
+package de.tudresden.matchtools.matrix;
+
+/**
+ * Stores cells as 32-bit floats, with a relative rounding error of at most
+ * 2^-24 (about 6e-8). Any double value can be stored, large ones lose
+ * precision and overflow to infinity beyond 3.4e38.
+ */
+public class FloatCellStorage extends CellStorage {
+	protected final float[] elements;
+
+	public FloatCellStorage(int size) {
+		this(new float[size]);
+	}
+
+	public FloatCellStorage(float[] elements) {
+		super();
+		this.elements = elements;
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public double get(int index) {
+		return elements[index];
+	}
+
+	@Override
+	public void set(int index, double value) {
+		elements[index] = (float) value;
+	}
+
+	@Override
+	public CellStorage like(int size) {
+		return new FloatCellStorage(size);
+	}
+
+	@Override
+	public float[] elements() {
+		return elements;
+	}
+
+	@Override
+	public int bytesPerCell() {
+		return 4;
+	}
+
+	@Override
+	public double precision() {
+		return 0x1.0p-24;
+	}
+
+	@Override
+	public boolean isBounded() {
+		return false;
+	}
+}
@@ -0,0 +1,76 @@
+package de.tudresden.matchtools.matrix;
+
+/**
+ * Stores cells in [0, 1] as unsigned 16-bit steps of 1/65535, rounded to the
+ * nearest step, so values read back differ by at most 7.7e-6 from the stored
+ * ones. 0 and 1 are exact. Values outside [0, 1] are clamped to it and NaN is
+ * stored as 0.
+ */
+public class Quantized16CellStorage extends CellStorage {
+	static final double STEPS = 65535.0;
+	// may differ from dividing by STEPS in the last bit, 0 and 1 stay exact
+	private static final double STEP = 1.0 / STEPS;
+
+	protected final char[] elements;
+
+	public Quantized16CellStorage(int size) {
+		this(new char[size]);
+	}
+
+	public Quantized16CellStorage(char[] elements) {
+		super();
+		this.elements = elements;
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public double get(int index) {
+		return decode(elements[index]);
+	}
+
+	@Override
+	public void set(int index, double value) {
+		elements[index] = encode(value);
+	}
+
+	static double decode(char step) {
+		return step * STEP;
+	}
+
+	static char encode(double value) {
+		if (!(value > 0.0))
+			return 0;
+		if (value >= 1.0)
+			return (char) STEPS;
+		return (char) (value * STEPS + 0.5);
+	}
+
+	@Override
+	public CellStorage like(int size) {
+		return new Quantized16CellStorage(size);
+	}
+
+	@Override
+	public char[] elements() {
+		return elements;
+	}
+
+	@Override
+	public int bytesPerCell() {
+		return 2;
+	}
+
+	@Override
+	public double precision() {
+		return 0.5 / STEPS;
+	}
+
+	@Override
+	public boolean isBounded() {
+		return true;
+	}
+}
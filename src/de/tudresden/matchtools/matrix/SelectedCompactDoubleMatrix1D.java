@@ -0,0 +1,94 @@
+package de.tudresden.matchtools.matrix;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.DoubleMatrix3D;
+
+/**
+ * A selection view (viewSelection) of a compact vector, or a row or column of a
+ * SelectedCompactDoubleMatrix2D, sharing its storage. Cell i is at offset +
+ * offsets[i] of the storage.
+ */
+class SelectedCompactDoubleMatrix1D extends DoubleMatrix1D {
+	private static final long serialVersionUID = 1L;
+
+	protected CellStorage cells;
+	protected int[] offsets;
+	protected int offset;
+
+	SelectedCompactDoubleMatrix1D(CellStorage cells, int[] offsets) {
+		this(offsets.length, cells, 0, 1, offsets, 0);
+	}
+
+	SelectedCompactDoubleMatrix1D(int size, CellStorage cells, int zero, int stride,
+			int[] offsets, int offset) {
+		super();
+		setUp(size, zero, stride);
+		this.cells = cells;
+		this.offsets = offsets;
+		this.offset = offset;
+		this.isNoView = false;
+	}
+
+	public CellStorage getCells() {
+		return cells;
+	}
+
+	@Override
+	public Object elements() {
+		return cells.elements();
+	}
+
+	@Override
+	public double getQuick(int index) {
+		return cells.get(offset + offsets[zero + index * stride]);
+	}
+
+	@Override
+	public void setQuick(int index, double value) {
+		cells.set(offset + offsets[zero + index * stride], value);
+	}
+
+	@Override
+	public long index(int rank) {
+		return offset + offsets[zero + rank * stride];
+	}
+
+	/**
+	 * Includes offset, so selections of this view need none.
+	 */
+	@Override
+	protected int _offset(int absRank) {
+		return offset + offsets[absRank];
+	}
+
+	@Override
+	public DoubleMatrix1D like(int size) {
+		return new CompactDoubleMatrix1D(size, cells.like(size));
+	}
+
+	@Override
+	public DoubleMatrix2D like2D(int rows, int columns) {
+		return new CompactDoubleMatrix2D(rows, columns, cells.like(rows * columns));
+	}
+
+	@Override
+	public DoubleMatrix2D reshape(int rows, int columns) {
+		return CompactDoubleMatrix1D.reshape(this, rows, columns);
+	}
+
+	@Override
+	public DoubleMatrix3D reshape(int slices, int rows, int columns) {
+		return CompactDoubleMatrix1D.reshape(this, slices, rows, columns);
+	}
+
+	@Override
+	protected DoubleMatrix1D viewSelectionLike(int[] offsets) {
+		return new SelectedCompactDoubleMatrix1D(cells, offsets);
+	}
+
+	@Override
+	protected boolean haveSharedCellsRaw(DoubleMatrix1D other) {
+		return CompactDoubleMatrix1D.storage(other) == cells;
+	}
+}
@@ -0,0 +1,132 @@
+package de.tudresden.matchtools.matrix;
+
+import cern.colt.matrix.AbstractMatrix2D;
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A selection view (viewSelection) of a CompactDoubleMatrix2D, sharing its
+ * storage. The cell of row r and column c is at rowOffsets[r] +
+ * columnOffsets[c] of the storage, like in Colt's selection views of dense
+ * matrices.
+ */
+class SelectedCompactDoubleMatrix2D extends DoubleMatrix2D {
+	private static final long serialVersionUID = 1L;
+
+	protected CellStorage cells;
+	protected int[] rowOffsets;
+	protected int[] columnOffsets;
+
+	SelectedCompactDoubleMatrix2D(CellStorage cells, int[] rowOffsets, int[] columnOffsets) {
+		super();
+		setUp(rowOffsets.length, columnOffsets.length, 0, 0, 1, 1);
+		this.cells = cells;
+		this.rowOffsets = rowOffsets;
+		this.columnOffsets = columnOffsets;
+		this.isNoView = false;
+	}
+
+	public CellStorage getCells() {
+		return cells;
+	}
+
+	@Override
+	public Object elements() {
+		return cells.elements();
+	}
+
+	@Override
+	public double getQuick(int row, int column) {
+		return cells.get(rowOffsets[rowZero + row * rowStride]
+				+ columnOffsets[columnZero + column * columnStride]);
+	}
+
+	@Override
+	public void setQuick(int row, int column, double value) {
+		cells.set(rowOffsets[rowZero + row * rowStride]
+				+ columnOffsets[columnZero + column * columnStride], value);
+	}
+
+	@Override
+	public long index(int row, int column) {
+		return rowOffsets[rowZero + row * rowStride]
+				+ columnOffsets[columnZero + column * columnStride];
+	}
+
+	@Override
+	protected int _rowOffset(int absRank) {
+		return rowOffsets[absRank];
+	}
+
+	@Override
+	protected int _columnOffset(int absRank) {
+		return columnOffsets[absRank];
+	}
+
+	@Override
+	public DoubleMatrix2D like(int rows, int columns) {
+		return new CompactDoubleMatrix2D(rows, columns, cells.like(rows * columns));
+	}
+
+	@Override
+	public DoubleMatrix1D like1D(int size) {
+		return new CompactDoubleMatrix1D(size, cells.like(size));
+	}
+
+	/**
+	 * Not used, rows and columns are viewed through their offsets instead.
+	 */
+	@Override
+	protected DoubleMatrix1D like1D(int size, int zero, int stride) {
+		throw new InternalError();
+	}
+
+	@Override
+	public DoubleMatrix1D viewRow(int row) {
+		checkRow(row);
+		return new SelectedCompactDoubleMatrix1D(columns, cells, columnZero, columnStride,
+				columnOffsets, rowOffsets[rowZero + row * rowStride]);
+	}
+
+	@Override
+	public DoubleMatrix1D viewColumn(int column) {
+		checkColumn(column);
+		return new SelectedCompactDoubleMatrix1D(rows, cells, rowZero, rowStride,
+				rowOffsets, columnOffsets[columnZero + column * columnStride]);
+	}
+
+	@Override
+	protected AbstractMatrix2D vDice() {
+		super.vDice();
+		int[] tmp = rowOffsets;
+		rowOffsets = columnOffsets;
+		columnOffsets = tmp;
+		this.isNoView = false;
+		return this;
+	}
+
+	/**
+	 * Stacks the columns on top of each other, like DenseDoubleMatrix2D does.
+	 */
+	@Override
+	public DoubleMatrix1D vectorize() {
+		DoubleMatrix1D v = like1D(rows * columns);
+		int index = 0;
+		for (int c = 0; c < columns; c++) {
+			for (int r = 0; r < rows; r++) {
+				v.setQuick(index++, getQuick(r, c));
+			}
+		}
+		return v;
+	}
+
+	@Override
+	protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets, int[] columnOffsets) {
+		return new SelectedCompactDoubleMatrix2D(cells, rowOffsets, columnOffsets);
+	}
+
+	@Override
+	protected boolean haveSharedCellsRaw(DoubleMatrix2D other) {
+		return CompactDoubleMatrix2D.storage(other) == cells;
+	}
+}
@@ -0,0 +1,31 @@
+package de.tudresden.matchtools.metrics;
+
+import de.tudresden.matchtools.similarities.StringSimilarity;
+
+/**
+ * An enabled MatchMetrics that ignores everything, to override the methods of
+ * interest.
+ */
+public abstract class AbstractMatchMetrics implements MatchMetrics {
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public void matcherCompleted(StringSimilarity matcher, long pairs, long nanos) {
+	}
+
+	@Override
+	public void matchCompleted(String operation, long cells, long nanos) {
+	}
+
+	@Override
+	public void selectionCompleted(String selection, int rows, int columns, long nanos) {
+	}
+
+	@Override
+	public void weightsFetched(int terms, long nanos) {
+	}
+}
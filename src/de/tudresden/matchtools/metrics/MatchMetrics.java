@@ -0,0 +1,48 @@
+package de.tudresden.matchtools.metrics;
+
+import de.tudresden.matchtools.similarities.StringSimilarity;
+
+/**
+ * Receives counters and timings from MatchTools, SimMatrix and
+ * WebreduceWeighter, e.g. to export them to a monitoring system. Methods may be
+ * called from several threads at once. Nothing is measured while isEnabled
+ * returns false, so the default NONE costs one check per operation.
+ *
+ * Times are in nanoseconds. Matcher times are summed over all worker threads,
+ * operation and selection times are wall-clock times of the calling thread.
+ */
+public interface MatchMetrics {
+
+	/**
+	 * Ignores everything.
+	 */
+	public static final MatchMetrics NONE = new AbstractMatchMetrics() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+	};
+
+	public boolean isEnabled();
+
+	/**
+	 * A matcher scored pairs pairs during one operation.
+	 */
+	public void matcherCompleted(StringSimilarity matcher, long pairs, long nanos);
+
+	/**
+	 * An operation such as doMatch or locate filled cells cells.
+	 */
+	public void matchCompleted(String operation, long cells, long nanos);
+
+	/**
+	 * A SimMatrix selection ran on a rows x columns matrix. Selections called by
+	 * other selections are reported as well.
+	 */
+	public void selectionCompleted(String selection, int rows, int columns, long nanos);
+
+	/**
+	 * A weighter fetched the weights of terms words from a remote service.
+	 */
+	public void weightsFetched(int terms, long nanos);
+}
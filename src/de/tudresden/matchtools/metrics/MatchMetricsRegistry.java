@@ -0,0 +1,105 @@
+package de.tudresden.matchtools.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tudresden.matchtools.similarities.StringSimilarity;
+
+/**
+ * Accumulates everything it receives in named timers, to be read out
+ * periodically by an exporter:
+ * <pre>
+ * matcher.&lt;class name&gt;   pairs scored, thread time
+ * match.&lt;operation&gt;      cells filled, wall-clock time
+ * selection.&lt;selection&gt;  cells of the matrices, wall-clock time
+ * weights.fetch          terms fetched, request time
+ * </pre>
+ */
+public class MatchMetricsRegistry extends AbstractMatchMetrics {
+
+	public static class Timer {
+		protected final AtomicLong calls = new AtomicLong();
+		protected final AtomicLong count = new AtomicLong();
+		protected final AtomicLong nanos = new AtomicLong();
+
+		public void record(long count, long nanos) {
+			this.calls.incrementAndGet();
+			this.count.addAndGet(count);
+			this.nanos.addAndGet(nanos);
+		}
+
+		public long getCalls() {
+			return calls.get();
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getNanos() {
+			return nanos.get();
+		}
+
+		public String toString() {
+			return String.format("%d calls, %d items, %.3f ms", getCalls(), getCount(),
+					getNanos() / 1e6);
+		}
+	}
+
+	protected final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer created = new Timer();
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null)
+				timer = created;
+		}
+		return timer;
+	}
+
+	/**
+	 * All timers recorded so far, by name.
+	 */
+	public Map<String, Timer> getTimers() {
+		return new TreeMap<>(timers);
+	}
+
+	public void reset() {
+		timers.clear();
+	}
+
+	@Override
+	public void matcherCompleted(StringSimilarity matcher, long pairs, long nanos) {
+		String name = matcher.getClass().getSimpleName();
+		timer("matcher." + (name.isEmpty() ? matcher.getClass().getName() : name))
+				.record(pairs, nanos);
+	}
+
+	@Override
+	public void matchCompleted(String operation, long cells, long nanos) {
+		timer("match." + operation).record(cells, nanos);
+	}
+
+	@Override
+	public void selectionCompleted(String selection, int rows, int columns, long nanos) {
+		timer("selection." + selection).record((long) rows * columns, nanos);
+	}
+
+	@Override
+	public void weightsFetched(int terms, long nanos) {
+		timer("weights.fetch").record(terms, nanos);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Timer> e : getTimers().entrySet()) {
+			sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,74 @@
+package de.tudresden.matchtools.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.similarities.StringSimilarity;
+
+/**
+ * Counts and times the calls of a StringSimilarity. Every thread counts into
+ * its own slots, which report adds up once the threads are done, so workers
+ * never contend. Each call costs two System.nanoTime calls, which is why
+ * MatchTools only wraps its matchers while metrics are enabled.
+ */
+public class TimedSimilarity implements StringSimilarity {
+	protected final StringSimilarity similarity;
+	// per thread: pairs, nanos
+	private final List<long[]> counters = Collections.synchronizedList(new ArrayList<long[]>());
+	private final ThreadLocal<long[]> local = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			long[] counter = new long[2];
+			counters.add(counter);
+			return counter;
+		}
+	};
+
+	public TimedSimilarity(StringSimilarity similarity) {
+		super();
+		this.similarity = similarity;
+	}
+
+	public StringSimilarity getSimilarity() {
+		return similarity;
+	}
+
+	@Override
+	public double similarity(String a, String b) {
+		long[] counter = local.get();
+		long start = System.nanoTime();
+		double sim = similarity.similarity(a, b);
+		counter[1] += System.nanoTime() - start;
+		counter[0]++;
+		return sim;
+	}
+
+	@Override
+	public double similarity(PreparedString a, PreparedString b) {
+		long[] counter = local.get();
+		long start = System.nanoTime();
+		double sim = similarity.similarity(a, b);
+		counter[1] += System.nanoTime() - start;
+		counter[0]++;
+		return sim;
+	}
+
+	/**
+	 * Reports the calls of all threads as one matcherCompleted of the wrapped
+	 * similarity. Must only be called after the calling threads are done, e.g.
+	 * after the tasks using this have been joined.
+	 */
+	public void report(MatchMetrics metrics) {
+		long pairs = 0;
+		long nanos = 0;
+		synchronized (counters) {
+			for (long[] counter : counters) {
+				pairs += counter[0];
+				nanos += counter[1];
+			}
+		}
+		metrics.matcherCompleted(similarity, pairs, nanos);
+	}
+}
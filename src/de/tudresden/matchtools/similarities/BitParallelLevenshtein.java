@@ -0,0 +1,169 @@
+package de.tudresden.matchtools.similarities;
+
+/**
+ * Levenshtein distance with Myers' bit-vector algorithm in Hyyro's
+ * formulation. The shorter string is the pattern; each of its characters is one
+ * bit of a 64-bit word, and one column of the dynamic programming matrix is
+ * advanced per character of the longer string with a few word operations.
+ * Patterns longer than 64 characters are split into blocks of 64 rows, passing
+ * the horizontal delta of a block's last row on to the next block.
+ *
+ * Match masks of characters below 256 are looked up in per-thread tables, which
+ * are cleared again after each call; masks of other characters are computed by
+ * scanning the pattern. No memory is allocated per call.
+ */
+public class BitParallelLevenshtein {
+	private static final int TABLE_SIZE = 256;
+
+	private static class Scratch {
+		long[] peq = new long[TABLE_SIZE];
+		long[] pv = new long[4];
+		long[] mv = new long[4];
+	}
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * The Levenshtein similarity as computed by Lucene's LevensteinDistance:
+	 * 1 - distance / max(|s|, |t|), and 1 for two empty strings.
+	 */
+	public float similarity(String s, String t) {
+		int n = s.length();
+		int m = t.length();
+		if (n == 0 || m == 0)
+			return n == m ? 1.0f : 0.0f;
+		return 1.0f - ((float) distance(s, t) / Math.max(n, m));
+	}
+
+	public int distance(String s, String t) {
+		String pattern = s.length() <= t.length() ? s : t;
+		String text = pattern == s ? t : s;
+		int m = pattern.length();
+		if (m == 0)
+			return text.length();
+		if (m <= 64)
+			return distanceSingleWord(pattern, text);
+		return distanceBlocked(pattern, text);
+	}
+
+	private int distanceSingleWord(String pattern, String text) {
+		int m = pattern.length();
+		long[] peq = scratch.get().peq;
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(i);
+			if (c < TABLE_SIZE)
+				peq[c] |= 1L << i;
+		}
+
+		long last = 1L << (m - 1);
+		long pv = -1L;
+		long mv = 0L;
+		int score = m;
+		for (int j = 0; j < text.length(); j++) {
+			char c = text.charAt(j);
+			long eq = c < TABLE_SIZE ? peq[c] : mask(pattern, 0, m, c);
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & last) != 0)
+				score++;
+			else if ((mh & last) != 0)
+				score--;
+			// the first row of the matrix grows by one per column
+			ph = (ph << 1) | 1L;
+			mh <<= 1;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+		}
+
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(i);
+			if (c < TABLE_SIZE)
+				peq[c] = 0L;
+		}
+		return score;
+	}
+
+	private int distanceBlocked(String pattern, String text) {
+		int m = pattern.length();
+		int blocks = (m + 63) >>> 6;
+		Scratch buffers = scratch.get();
+		if (buffers.peq.length < blocks * TABLE_SIZE)
+			buffers.peq = new long[blocks * TABLE_SIZE];
+		if (buffers.pv.length < blocks) {
+			buffers.pv = new long[blocks];
+			buffers.mv = new long[blocks];
+		}
+		long[] peq = buffers.peq;
+		long[] pv = buffers.pv;
+		long[] mv = buffers.mv;
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(i);
+			if (c < TABLE_SIZE)
+				peq[(i >>> 6) * TABLE_SIZE + c] |= 1L << (i & 63);
+		}
+		for (int b = 0; b < blocks; b++) {
+			pv[b] = -1L;
+			mv[b] = 0L;
+		}
+
+		long last = 1L << ((m - 1) & 63);
+		int lastBlock = blocks - 1;
+		int score = m;
+		for (int j = 0; j < text.length(); j++) {
+			char c = text.charAt(j);
+			int hin = 1;
+			for (int b = 0; b < blocks; b++) {
+				long eq = c < TABLE_SIZE ? peq[b * TABLE_SIZE + c]
+						: mask(pattern, b << 6, Math.min((b + 1) << 6, m), c);
+				long p = pv[b];
+				long mm = mv[b];
+				long xv = eq | mm;
+				if (hin < 0)
+					eq |= 1L;
+				long xh = (((eq & p) + p) ^ p) | eq;
+				long ph = mm | ~(xh | p);
+				long mh = p & xh;
+
+				long high = b == lastBlock ? last : Long.MIN_VALUE;
+				int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+
+				ph <<= 1;
+				mh <<= 1;
+				if (hin < 0)
+					mh |= 1L;
+				else if (hin > 0)
+					ph |= 1L;
+				pv[b] = mh | ~(xv | ph);
+				mv[b] = ph & xv;
+				hin = hout;
+			}
+			score += hin;
+		}
+
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(i);
+			if (c < TABLE_SIZE)
+				peq[(i >>> 6) * TABLE_SIZE + c] = 0L;
+		}
+		return score;
+	}
+
+	/**
+	 * The match mask of c over pattern characters from .. to-1.
+	 */
+	private static long mask(String pattern, int from, int to, char c) {
+		long eq = 0L;
+		for (int i = from; i < to; i++) {
+			if (pattern.charAt(i) == c)
+				eq |= 1L << (i - from);
+		}
+		return eq;
+	}
+}
@@ -0,0 +1,181 @@
+package de.tudresden.matchtools.similarities;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+
+/**
+ * Decides whether the Levenshtein similarity of two words, as computed by
+ * Lucene's LevensteinDistance, is larger than a threshold.
+ *
+ * The threshold is turned into the largest edit distance that still passes for
+ * the given word lengths. Pairs whose length difference alone exceeds it are
+ * rejected right away, all others run a dynamic program restricted to the band
+ * of that width around the diagonal, which stops as soon as a row exceeds it.
+ * The rows are per-thread scratch buffers, so no memory is allocated per call.
+ *
+ * With a WordPairCache, words of PreparedStrings carrying token ids of the same
+ * dictionary are compared only once.
+ */
+public class BoundedLevenshtein {
+	protected static final int CACHED_LENGTHS = 64;
+
+	protected final double threshold;
+	protected final int[] maxDistances;
+	protected final WordPairCache cache;
+
+	private final ThreadLocal<int[][]> rows = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[][] {new int[CACHED_LENGTHS + 1], new int[CACHED_LENGTHS + 1]};
+		}
+	};
+
+	public BoundedLevenshtein(double threshold) {
+		this(threshold, null);
+	}
+
+	public BoundedLevenshtein(double threshold, WordPairCache cache) {
+		super();
+		this.threshold = threshold;
+		this.cache = cache;
+		this.maxDistances = new int[CACHED_LENGTHS + 1];
+		for (int l = 1; l <= CACHED_LENGTHS; l++) {
+			maxDistances[l] = computeMaxDistance(l);
+		}
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Compares word i of s with word j of t, consulting the cache if both carry
+	 * token ids of the same dictionary.
+	 */
+	public boolean matches(PreparedString s, int i, PreparedString t, int j) {
+		if (cache == null || s.tokenIds == null || t.tokenIds == null
+				|| s.dictionary != t.dictionary)
+			return matches(s.words[i], t.words[j]);
+		int sId = s.tokenIds[i];
+		int tId = t.tokenIds[j];
+		// words that came after the dictionary was full have no id
+		if (sId == TokenDictionary.NONE || tId == TokenDictionary.NONE)
+			return matches(s.words[i], t.words[j]);
+		int cached = cache.get(s.dictionary, sId, tId);
+		if (cached != WordPairCache.UNKNOWN)
+			return cached == 1;
+		boolean result = matches(s.words[i], t.words[j]);
+		cache.put(s.dictionary, sId, tId, result);
+		return result;
+	}
+
+	/**
+	 * Returns true iff LevensteinDistance.getDistance(s, t) > threshold.
+	 */
+	public boolean matches(String s, String t) {
+		int n = s.length();
+		int m = t.length();
+		if (n == 0 || m == 0)
+			return (n == m ? 1.0f : 0.0f) > threshold;
+
+		int k = maxDistance(max(n, m));
+		if (k < 0 || abs(n - m) > k)
+			return false;
+		if (k == 0)
+			return s.equals(t);
+		return withinDistance(s, t, k);
+	}
+
+	/**
+	 * False if no words of these lengths can match, i.e. if matches is false for
+	 * all of them.
+	 */
+	public boolean mayMatch(int sLength, int tLength) {
+		if (sLength == 0 || tLength == 0)
+			return (sLength == tLength ? 1.0f : 0.0f) > threshold;
+		int k = maxDistance(max(sLength, tLength));
+		return k >= 0 && abs(sLength - tLength) <= k;
+	}
+
+	/**
+	 * The largest edit distance whose similarity is larger than the threshold
+	 * for words whose longer one has maxLength characters, or -1 if there is
+	 * none.
+	 */
+	public int maxDistance(int maxLength) {
+		if (maxLength <= CACHED_LENGTHS)
+			return maxDistances[maxLength];
+		return computeMaxDistance(maxLength);
+	}
+
+	protected int computeMaxDistance(int maxLength) {
+		int k = (int) Math.floor((1.0 - threshold) * maxLength);
+		k = Math.max(-1, Math.min(k, maxLength));
+		while (k < maxLength && passes(k + 1, maxLength))
+			k++;
+		while (k >= 0 && !passes(k, maxLength))
+			k--;
+		return k;
+	}
+
+	private boolean passes(int distance, int maxLength) {
+		// same expression as LevensteinDistance, including the float rounding
+		return 1.0f - ((float) distance / maxLength) > threshold;
+	}
+
+	protected boolean withinDistance(String s, String t, int k) {
+		int n = s.length();
+		int m = t.length();
+		int[][] buffers = rows.get();
+		if (buffers[0].length <= n) {
+			buffers[0] = new int[n + 1];
+			buffers[1] = new int[n + 1];
+		}
+		int[] p = buffers[0];
+		int[] d = buffers[1];
+		int[] swap;
+		final int outside = k + 1;
+
+		for (int i = 0; i <= n; i++) {
+			p[i] = i <= k ? i : outside;
+		}
+
+		for (int j = 1; j <= m; j++) {
+			char tj = t.charAt(j - 1);
+			int lo = max(1, j - k);
+			int hi = min(n, j + k);
+			d[0] = j <= k ? j : outside;
+			d[lo - 1] = lo == 1 ? d[0] : outside;
+			int rowMin = d[lo - 1];
+			for (int i = lo; i <= hi; i++) {
+				int cost = s.charAt(i - 1) == tj ? 0 : 1;
+				int v = min(min(d[i - 1] + 1, p[i] + 1), p[i - 1] + cost);
+				if (v > outside)
+					v = outside;
+				d[i] = v;
+				if (v < rowMin)
+					rowMin = v;
+			}
+			if (hi < n)
+				d[hi + 1] = outside;
+			if (rowMin > k)
+				return false;
+			swap = p;
+			p = d;
+			d = swap;
+		}
+		return p[n] <= k;
+	}
+
+	private static int min(int a, int b) {
+		return a < b ? a : b;
+	}
+
+	private static int max(int a, int b) {
+		return a > b ? a : b;
+	}
+
+	private static int abs(int a) {
+		return a < 0 ? -a : a;
+	}
+}
@@ -0,0 +1,22 @@
+package de.tudresden.matchtools.similarities;
+
+import de.tudresden.matchtools.datastructures.PreparedString;
+
+/**
+ * A StringSimilarity with a cheap upper bound, which lets threshold-aware
+ * matching skip pairs that cannot reach the threshold without computing their
+ * similarity.
+ */
+public interface BoundedSimilarity extends StringSimilarity {
+	/**
+	 * A value that similarity(a, b) never exceeds, computed in a fraction of
+	 * its time. NaN is allowed and never excludes a pair.
+	 */
+	public abstract double upperBound(PreparedString a, PreparedString b);
+
+	/**
+	 * The cost of similarity(a, b) relative to Levenshtein, which costs 1.
+	 * Threshold-aware matching computes cheaper similarities first.
+	 */
+	public abstract double cost();
+}
@@ -1,5 +1,6 @@
 package de.tudresden.matchtools.similarities;
 
+import java.util.BitSet;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
@@ -45,4 +46,61 @@ public abstract class SetSimilarities {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * The Jaccard similarity of two sets given as ascending arrays of distinct
+	 * ids, e.g. from TokenDictionary.ids. Two empty sets have similarity 0.
+	 */
+	public static double jaccard(int[] a, int[] b) {
+		int common = intersectionSize(a, b);
+		int union = a.length + b.length - common;
+		return union == 0 ? 0.0 : (double) common / union;
+	}
+
+	/**
+	 * The number of common ids of two ascending arrays of distinct ids.
+	 */
+	public static int intersectionSize(int[] a, int[] b) {
+		int common = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				common++;
+				i++;
+				j++;
+			}
+		}
+		return common;
+	}
+
+	/**
+	 * The Jaccard similarity of two sets of ids given as bitsets packed into
+	 * longs, bit i of word i/64 standing for id i. Two empty sets have
+	 * similarity 0.
+	 */
+	public static double jaccard(long[] a, long[] b) {
+		if (a.length > b.length) {
+			long[] swap = a;
+			a = b;
+			b = swap;
+		}
+		int common = 0;
+		int union = 0;
+		for (int w = 0; w < a.length; w++) {
+			common += Long.bitCount(a[w] & b[w]);
+			union += Long.bitCount(a[w] | b[w]);
+		}
+		for (int w = a.length; w < b.length; w++) {
+			union += Long.bitCount(b[w]);
+		}
+		return union == 0 ? 0.0 : (double) common / union;
+	}
+
+	public static double jaccard(BitSet a, BitSet b) {
+		return jaccard(a.toLongArray(), b.toLongArray());
+	}
+}
@@ -0,0 +1,167 @@
+package de.tudresden.matchtools.similarities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import cern.colt.list.tint.IntArrayList;
+import de.tudresden.matchtools.datastructures.MatchingIndices;
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+
+/**
+ * Finds all pairs of a set of a and a set of b whose Jaccard similarity is at
+ * least a threshold, without scoring every pair (AllPairs by Bayardo et al.).
+ *
+ * Elements are ordered by ascending frequency, so that every set starts with
+ * its rarest elements. Two sets x and y with Jaccard similarity t or more share
+ * at least ceil(t * |x|) elements, and therefore share an element among their
+ * first |x| - ceil(t * |x|) + 1. Only these prefixes of b are indexed, only
+ * the prefixes of a are probed, and only sets whose sizes differ by at most the
+ * factor t are verified.
+ */
+public class SetSimilarityJoin {
+	// guards the size bounds against rounding, a larger bound only costs time
+	private static final double EPSILON = 1e-9;
+
+	protected final double threshold;
+
+	public SetSimilarityJoin(double threshold) {
+		super();
+		if (!(threshold > 0.0 && threshold <= 1.0))
+			throw new IllegalArgumentException("threshold must be in (0, 1]: " + threshold);
+		this.threshold = threshold;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Joins two lists of value sets, see join(int[][], int[][]).
+	 */
+	public List<MatchingIndices> join(List<? extends Collection<String>> a,
+			List<? extends Collection<String>> b) {
+		TokenDictionary dictionary = new TokenDictionary();
+		int[][] aIds = new int[a.size()][];
+		for (int i = 0; i < aIds.length; i++) {
+			aIds[i] = dictionary.ids(a.get(i));
+		}
+		int[][] bIds = new int[b.size()][];
+		for (int j = 0; j < bIds.length; j++) {
+			bIds[j] = dictionary.ids(b.get(j));
+		}
+		return join(aIds, bIds);
+	}
+
+	/**
+	 * Returns all pairs (i, j, Jaccard similarity) with a similarity of at least
+	 * the threshold, ordered by i and then j. Sets are ascending arrays of
+	 * distinct, non-negative and preferably dense ids, e.g. from
+	 * TokenDictionary.ids. Empty sets are never part of a pair.
+	 */
+	public List<MatchingIndices> join(int[][] a, int[][] b) {
+		int[] rank = frequencyRanks(a, b);
+		int[][] x = remap(a, rank);
+		int[][] y = remap(b, rank);
+
+		// inverted index over the prefixes of b, in compressed form
+		int[] postingPointers = new int[rank.length + 1];
+		for (int[] set : y) {
+			for (int p = 0; p < prefixLength(set.length); p++) {
+				postingPointers[set[p] + 1]++;
+			}
+		}
+		for (int r = 0; r < rank.length; r++) {
+			postingPointers[r + 1] += postingPointers[r];
+		}
+		int[] postings = new int[postingPointers[rank.length]];
+		int[] next = Arrays.copyOf(postingPointers, rank.length);
+		for (int j = 0; j < y.length; j++) {
+			for (int p = 0; p < prefixLength(y[j].length); p++) {
+				postings[next[y[j][p]]++] = j;
+			}
+		}
+
+		List<MatchingIndices> result = new ArrayList<>();
+		int[] seen = new int[y.length];
+		Arrays.fill(seen, -1);
+		IntArrayList candidates = new IntArrayList();
+		for (int i = 0; i < x.length; i++) {
+			int[] set = x[i];
+			if (set.length == 0)
+				continue;
+			int minSize = (int) Math.ceil(threshold * set.length - EPSILON);
+			int maxSize = (int) Math.floor(set.length / threshold + EPSILON);
+			for (int p = 0; p < prefixLength(set.length); p++) {
+				for (int k = postingPointers[set[p]]; k < postingPointers[set[p] + 1]; k++) {
+					int j = postings[k];
+					if (seen[j] == i)
+						continue;
+					seen[j] = i;
+					if (y[j].length >= minSize && y[j].length <= maxSize)
+						candidates.add(j);
+				}
+			}
+			int[] elements = candidates.elements();
+			Arrays.sort(elements, 0, candidates.size());
+			for (int c = 0; c < candidates.size(); c++) {
+				int j = elements[c];
+				double sim = SetSimilarities.jaccard(set, y[j]);
+				if (sim >= threshold)
+					result.add(new MatchingIndices(i, j, sim));
+			}
+			candidates.clear();
+		}
+		return result;
+	}
+
+	protected int prefixLength(int size) {
+		if (size == 0)
+			return 0;
+		return size - (int) Math.ceil(threshold * size - EPSILON) + 1;
+	}
+
+	/**
+	 * Ranks all ids by ascending frequency over a and b.
+	 */
+	private static int[] frequencyRanks(int[][] a, int[][] b) {
+		int ids = 0;
+		for (int[][] sets : new int[][][] {a, b}) {
+			for (int[] set : sets) {
+				if (set.length > 0)
+					ids = Math.max(ids, set[set.length - 1] + 1);
+			}
+		}
+		int[] frequencies = new int[ids];
+		for (int[][] sets : new int[][][] {a, b}) {
+			for (int[] set : sets) {
+				for (int id : set) {
+					frequencies[id]++;
+				}
+			}
+		}
+		long[] order = new long[ids];
+		for (int id = 0; id < ids; id++) {
+			order[id] = ((long) frequencies[id] << 32) | id;
+		}
+		Arrays.sort(order);
+		int[] rank = new int[ids];
+		for (int r = 0; r < ids; r++) {
+			rank[(int) order[r]] = r;
+		}
+		return rank;
+	}
+
+	private static int[][] remap(int[][] sets, int[] rank) {
+		int[][] remapped = new int[sets.length][];
+		for (int i = 0; i < sets.length; i++) {
+			remapped[i] = new int[sets[i].length];
+			for (int k = 0; k < sets[i].length; k++) {
+				remapped[i][k] = rank[sets[i][k]];
+			}
+			Arrays.sort(remapped[i]);
+		}
+		return remapped;
+	}
+}
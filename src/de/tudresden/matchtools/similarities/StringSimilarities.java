@@ -1,53 +1,360 @@
 package de.tudresden.matchtools.similarities;
 
+import static java.lang.Math.abs;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.util.Arrays;
 
-import org.apache.lucene.search.spell.JaroWinklerDistance;
-import org.apache.lucene.search.spell.LevensteinDistance;
-import org.apache.lucene.search.spell.NGramDistance;
-
 import de.tudresden.matchtools.datastructures.PreparedString;
 import de.tudresden.matchtools.weights.Weighter;
 
+/**
+ * The string similarities of MatchTools. All of them are thread-safe and
+ * lock-free, keeping their scratch buffers per thread, so one instance can
+ * serve any number of threads.
+ */
 public abstract class StringSimilarities {
-	public static class Levenshtein implements StringSimilarity {
-		private LevensteinDistance ld = new LevensteinDistance();
+	/** slots of the word-pair cache of each by-word similarity */
+	public static final int WORD_PAIR_CACHE_SIZE = 1 << 16;
+
+	private static final ThreadLocal<int[]> characterCounts = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[256];
+		}
+	};
+
+	/**
+	 * An upper bound of the size of the intersection of the character
+	 * multisets of s and t, counting characters by their low byte.
+	 */
+	protected static int commonCharacters(String s, String t) {
+		int[] counts = characterCounts.get();
+		for (int i = 0; i < s.length(); i++) {
+			counts[s.charAt(i) & 0xFF]++;
+		}
+		int common = 0;
+		for (int i = 0; i < t.length(); i++) {
+			int c = t.charAt(i) & 0xFF;
+			if (counts[c] > 0) {
+				counts[c]--;
+				common++;
+			}
+		}
+		for (int i = 0; i < s.length(); i++) {
+			counts[s.charAt(i) & 0xFF] = 0;
+		}
+		return common;
+	}
+
+	/**
+	 * The number of words of s that ld may match with a word of t, judged by
+	 * their lengths alone.
+	 */
+	protected static double matchableWords(BoundedLevenshtein ld, PreparedString s,
+			PreparedString t) {
+		double matchable = 0.0;
+		outer: for (String sw : s.words) {
+			for (String tw : t.words) {
+				if (ld.mayMatch(sw.length(), tw.length())) {
+					matchable += 1;
+					continue outer;
+				}
+			}
+		}
+		return matchable;
+	}
+
+	public static class Levenshtein implements BoundedSimilarity {
+		private final BitParallelLevenshtein ld = new BitParallelLevenshtein();
 		@Override
 		public double similarity(String a, String b) {
-			return ld.getDistance(a, b);
+			return ld.similarity(a, b);
 		}
 		public double similarity(PreparedString a, PreparedString b) {
 			return similarity(a.string, b.string);
 		}
+
+		/**
+		 * Every character of the longer string that is not matched by an equal
+		 * one of the other costs an edit, so the distance is at least the
+		 * longer length minus the number of characters both have in common.
+		 */
+		@Override
+		public double upperBound(PreparedString a, PreparedString b) {
+			int n = a.string.length();
+			int m = b.string.length();
+			if (n == 0 || m == 0)
+				return n == m ? 1.0f : 0.0f;
+			int common = commonCharacters(a.string, b.string);
+			return 1.0f - ((float) (max(n, m) - common) / max(n, m));
+		}
+		@Override
+		public double cost() {
+			return 1.0;
+		}
 	}
 
-	public static class NGram implements StringSimilarity {
-		private NGramDistance ld = new NGramDistance();
+	/**
+	 * The n-gram similarity of Kondrak as computed by Lucene's NGramDistance,
+	 * with the rows of the dynamic program kept in per-thread scratch buffers.
+	 */
+	public static class NGram implements BoundedSimilarity {
+		/** relative error of a float addition, bounding the rounding per step */
+		private static final double ROUNDING = 1e-7;
+
+		protected final int n;
+		private final ThreadLocal<float[][]> rows = new ThreadLocal<float[][]>() {
+			@Override
+			protected float[][] initialValue() {
+				return new float[][] {new float[65], new float[65]};
+			}
+		};
+
+		public NGram() {
+			this(2);
+		}
+
+		public NGram(int n) {
+			super();
+			this.n = n;
+		}
+
 		@Override
 		public double similarity(String a, String b) {
-			return ld.getDistance(a, b);
+			return distance(a, b);
 		}
 		public double similarity(PreparedString a, PreparedString b) {
 			return similarity(a.string, b.string);
 		}
+
+		protected float distance(String source, String target) {
+			final int sl = source.length();
+			final int tl = target.length();
+			if (sl == 0 || tl == 0)
+				return sl == tl ? 1 : 0;
+
+			int cost = 0;
+			if (sl < n || tl < n) {
+				for (int i = 0, ni = min(sl, tl); i < ni; i++) {
+					if (source.charAt(i) == target.charAt(i))
+						cost++;
+				}
+				return (float) cost / max(sl, tl);
+			}
+
+			float[][] buffers = rows.get();
+			if (buffers[0].length <= sl) {
+				buffers[0] = new float[sl + 1];
+				buffers[1] = new float[sl + 1];
+			}
+			float[] p = buffers[0];
+			float[] d = buffers[1];
+			float[] swap;
+			for (int i = 0; i <= sl; i++) {
+				p[i] = i;
+			}
+			for (int j = 1; j <= tl; j++) {
+				d[0] = j;
+				for (int i = 1; i <= sl; i++) {
+					cost = 0;
+					int tn = n;
+					for (int ni = 0; ni < n; ni++) {
+						char sc = padded(source, i - n + ni);
+						if (sc != padded(target, j - n + ni))
+							cost++;
+						else if (sc == 0) // discount matches on the prefix
+							tn--;
+					}
+					float ec = (float) cost / tn;
+					d[i] = Math.min(Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + ec);
+				}
+				swap = p;
+				p = d;
+				d = swap;
+			}
+			return 1.0f - (p[sl] / Math.max(tl, sl));
+		}
+
+		/**
+		 * Every alignment needs |length difference| insertions or deletions,
+		 * costing 1 each, and aligns at most min(sl, tl) positions. Each aligned
+		 * position costs 1/n per mismatch in its n-gram; for every offset into
+		 * the n-grams, the matching characters form a common subsequence, so
+		 * there are at most as many as characters both strings have in common,
+		 * plus the matches on the padding. The bound allows for the rounding of
+		 * the dynamic program in floats.
+		 */
+		@Override
+		public double upperBound(PreparedString a, PreparedString b) {
+			final String source = a.string;
+			final String target = b.string;
+			final int sl = source.length();
+			final int tl = target.length();
+			if (sl == 0 || tl == 0)
+				return sl == tl ? 1 : 0;
+			int common = commonCharacters(source, target);
+			if (sl < n || tl < n)
+				return (float) common / max(sl, tl);
+			double distance = abs(sl - tl);
+			// characters equal to the padding also match it
+			if (source.indexOf(0) < 0 && target.indexOf(0) < 0)
+				distance += max(0.0, min(sl, tl) - common - (n - 1) / 2.0);
+			return 1.0 - distance / max(sl, tl) + ROUNDING * (sl + tl + 2);
+		}
+		@Override
+		public double cost() {
+			return 4.0;
+		}
+
+		/**
+		 * Character i of s, with the n-1 characters before it padded with 0.
+		 */
+		private static char padded(String s, int i) {
+			return i < 0 ? 0 : s.charAt(i);
+		}
 	}
 
-	public static class Jaro implements StringSimilarity {
-		private JaroWinklerDistance ld = new JaroWinklerDistance();
+	/**
+	 * The Dice coefficient of the n-gram multisets of two strings,
+	 * 2 |common grams| / (|grams of a| + |grams of b|). PreparedStrings carrying
+	 * a profile of the same gram size are compared by a single merge over their
+	 * sorted profiles; all others get theirs computed per call.
+	 */
+	public static class NGramDice implements StringSimilarity {
+		protected final int n;
+
+		public NGramDice() {
+			this(2);
+		}
+
+		public NGramDice(int n) {
+			super();
+			this.n = n;
+		}
+
 		@Override
 		public double similarity(String a, String b) {
-			return ld.getDistance(a, b);
+			return similarity(PreparedString.ngramProfile(a, n),
+					PreparedString.ngramProfile(b, n));
+		}
+		public double similarity(PreparedString a, PreparedString b) {
+			return similarity(profile(a), profile(b));
+		}
+
+		private int[] profile(PreparedString s) {
+			if (s.ngrams != null && s.ngramSize == n)
+				return s.ngrams;
+			return PreparedString.ngramProfile(s.string, n);
+		}
+
+		protected double similarity(int[] a, int[] b) {
+			if (a.length == 0 || b.length == 0)
+				return a.length == b.length ? 1.0 : 0.0;
+			int common = 0;
+			int i = 0;
+			int j = 0;
+			while (i < a.length && j < b.length) {
+				if (a[i] < b[j]) {
+					i++;
+				} else if (a[i] > b[j]) {
+					j++;
+				} else {
+					common++;
+					i++;
+					j++;
+				}
+			}
+			return 2.0 * common / (a.length + b.length);
+		}
+	}
+
+	/**
+	 * The Jaro-Winkler similarity as computed by Lucene's JaroWinklerDistance,
+	 * with the match flags kept in per-thread scratch buffers.
+	 */
+	public static class Jaro implements StringSimilarity {
+		protected float threshold = 0.7f;
+		private final ThreadLocal<boolean[][]> flags = new ThreadLocal<boolean[][]>() {
+			@Override
+			protected boolean[][] initialValue() {
+				return new boolean[][] {new boolean[64], new boolean[64]};
+			}
+		};
+
+		@Override
+		public double similarity(String s1, String s2) {
+			String max, min;
+			if (s1.length() > s2.length()) {
+				max = s1;
+				min = s2;
+			} else {
+				max = s2;
+				min = s1;
+			}
+			int maxLength = max.length();
+			int minLength = min.length();
+			boolean[][] buffers = flags.get();
+			if (buffers[1].length < maxLength) {
+				buffers[0] = new boolean[maxLength];
+				buffers[1] = new boolean[maxLength];
+			}
+			boolean[] minFlags = buffers[0];
+			boolean[] maxFlags = buffers[1];
+
+			int range = Math.max(maxLength / 2 - 1, 0);
+			int matches = 0;
+			for (int mi = 0; mi < minLength; mi++) {
+				char c1 = min.charAt(mi);
+				for (int xi = Math.max(mi - range, 0), xn = Math.min(mi + range + 1,
+						maxLength); xi < xn; xi++) {
+					if (!maxFlags[xi] && c1 == max.charAt(xi)) {
+						minFlags[mi] = true;
+						maxFlags[xi] = true;
+						matches++;
+						break;
+					}
+				}
+			}
+			// matched characters of min and max, compared in order
+			int transpositions = 0;
+			for (int mi = 0, xi = 0; mi < minLength; mi++) {
+				if (!minFlags[mi])
+					continue;
+				while (!maxFlags[xi])
+					xi++;
+				if (min.charAt(mi) != max.charAt(xi))
+					transpositions++;
+				xi++;
+			}
+			Arrays.fill(minFlags, 0, minLength, false);
+			Arrays.fill(maxFlags, 0, maxLength, false);
+			if (matches == 0)
+				return 0f;
+
+			int prefix = 0;
+			for (int mi = 0; mi < minLength; mi++) {
+				if (s1.charAt(mi) == s2.charAt(mi))
+					prefix++;
+				else
+					break;
+			}
+
+			float m = matches;
+			float j = ((m / s1.length() + m / s2.length() + (m - transpositions / 2) / m)) / 3;
+			float jw = j < threshold ? j : j + Math.min(0.1f, 1f / maxLength) * prefix
+					* (1 - j);
+			return jw;
 		}
 		public double similarity(PreparedString a, PreparedString b) {
 			return similarity(a.string, b.string);
 		}
 	}
 
-	public static class ByWordLevenshtein implements StringSimilarity {
-		private LevensteinDistance ld = new LevensteinDistance();
+	public static class ByWordLevenshtein implements BoundedSimilarity {
+		private final BoundedLevenshtein ld = new BoundedLevenshtein(0.8,
+				new WordPairCache(WORD_PAIR_CACHE_SIZE));
 
 		@Override
 		public double similarity(String s, String t) {
@@ -57,7 +364,7 @@ public abstract class StringSimilarities {
 			double matching = 0.0;
 			outer: for (String sw : swords) {
 				for (String tw: twords) {
-	                if (ld.getDistance(sw, tw) > 0.8) {
+	                if (ld.matches(sw, tw)) {
 	                    matching += 1;
 	                    continue outer;
 	                }
@@ -65,25 +372,58 @@ public abstract class StringSimilarities {
 			}
 	        return matching / max(swords.length, twords.length);
 	    }
-		public double similarity(PreparedString a, PreparedString b) {
-			return similarity(a.string, b.string);
+		public double similarity(PreparedString s, PreparedString t) {
+			int slength = s.words.length;
+			int tlength = t.words.length;
+
+			double matching = 0.0;
+			outer: for (int i = 0; i < slength; i++) {
+				for (int j = 0; j < tlength; j++) {
+	                if (ld.matches(s, i, t, j)) {
+	                    matching += 1;
+	                    continue outer;
+	                }
+				}
+			}
+	        return matching / max(slength, tlength);
+		}
+
+		/**
+		 * Counts the words of s that have a word in t of a length within the
+		 * word matcher's distance.
+		 */
+		@Override
+		public double upperBound(PreparedString s, PreparedString t) {
+			return matchableWords(ld, s, t) / max(s.words.length, t.words.length);
+		}
+		@Override
+		public double cost() {
+			return 2.0;
 		}
 	}
-	public static class WeightedByWordLevenshtein implements StringSimilarity {
-		protected LevensteinDistance ld = new LevensteinDistance();
+	public static class WeightedByWordLevenshtein implements BoundedSimilarity {
+		protected BoundedLevenshtein ld;
 		protected Weighter weighter;
 		protected double levenshteinThreshold;
 
 		public WeightedByWordLevenshtein(Weighter weighter) {
-			super();
-			this.weighter = weighter;
-			this.levenshteinThreshold = 0.8;
+			this(weighter, 0.8);
 		}
 
 		public WeightedByWordLevenshtein(Weighter weighter, double levenshteinThreshold) {
 			super();
 			this.weighter = weighter;
 			this.levenshteinThreshold = levenshteinThreshold;
+			this.ld = new BoundedLevenshtein(levenshteinThreshold,
+					new WordPairCache(WORD_PAIR_CACHE_SIZE));
+		}
+
+		/**
+		 * The word matcher; two strings are only similar if it matches one of
+		 * their word pairs.
+		 */
+		public BoundedLevenshtein getLevenshtein() {
+			return ld;
 		}
 
 		@Override
@@ -109,11 +449,9 @@ public abstract class StringSimilarities {
 
 			outer: for (int i = 0; i < swords.length; i++) {
 				double sWeight = sweights[i] / sumWeights;
-				String sw = swords[i];
 				for (int j = 0; j < twords.length; j++) {
 					double tWeight = tweights[j] / sumWeights;
-					String tw = twords[j];
-					if (ld.getDistance(sw, tw) > levenshteinThreshold) {
+					if (ld.matches(s, i, t, j)) {
 						matching += sWeight + tWeight;
 						continue outer;
 					}
@@ -123,11 +461,53 @@ public abstract class StringSimilarities {
 
 	        return min(matching, 1.0);
 	    }
+
+		/**
+		 * Sums the weights of the words of s that have a word in t of a length
+		 * within the word matcher's distance, each with the largest weight of
+		 * these words in t. Also bounds WeightedByWordAndPositionLevenshtein,
+		 * which weighs matches the same or less.
+		 */
+		@Override
+		public double upperBound(PreparedString s, PreparedString t) {
+			String[] swords = s.words;
+			String[] twords = t.words;
+			double sumWeights = 0.0;
+			for (int i = 0; i < swords.length; i++) {
+				sumWeights += s.weights[i];
+			}
+			for (int i = 0; i < twords.length; i++) {
+				sumWeights += t.weights[i];
+			}
+			if (!(sumWeights > 0.0))
+				return 1.0;
+
+			double matching = 0.0;
+			for (int i = 0; i < swords.length; i++) {
+				int sl = swords[i].length();
+				boolean matchable = false;
+				double tWeight = 0.0;
+				for (int j = 0; j < twords.length; j++) {
+					if (ld.mayMatch(sl, twords[j].length())) {
+						matchable = true;
+						tWeight = max(tWeight, t.weights[j]);
+					}
+				}
+				if (matchable)
+					matching += max(s.weights[i] / sumWeights + tWeight / sumWeights, 0.0);
+			}
+			return min(matching, 1.0);
+		}
+		@Override
+		public double cost() {
+			return 2.0;
+		}
 	}
 
-	public static class AFocusedByWordLevenshtein implements StringSimilarity {
-		protected LevensteinDistance ld = new LevensteinDistance();
+	public static class AFocusedByWordLevenshtein implements BoundedSimilarity {
 		protected double levenshteinThreshold = 0.8;
+		protected BoundedLevenshtein ld = new BoundedLevenshtein(levenshteinThreshold,
+				new WordPairCache(WORD_PAIR_CACHE_SIZE));
 
 		public AFocusedByWordLevenshtein() {
 			super();
@@ -140,24 +520,51 @@ public abstract class StringSimilarities {
 			return _similarity(swords, twords);
 	    }
 		public double similarity(PreparedString s, PreparedString t) {
-			String[] swords = s.words;
-			String[] twords = t.words;
-			return _similarity(swords, twords);
+			int slength = s.words.length;
+			int tlength = t.words.length;
+
+			double matching = 0.0;
+			outer: for (int i = 0; i < slength; i++) {
+				for (int j = 0; j < tlength; j++) {
+	                if (ld.matches(s, i, t, j)) {
+	                    matching += 1;
+	                    continue outer;
+	                }
+				}
+			}
+			return _similarity(matching, slength, tlength);
 		}
 
 	    private double _similarity(String[] swords, String[] twords) {
 			double matching = 0.0;
 			outer: for (String sw : swords) {
 				for (String tw: twords) {
-	                if (ld.getDistance(sw, tw) > 0.8) {
+	                if (ld.matches(sw, tw)) {
 	                    matching += 1;
 	                    continue outer;
 	                }
 				}
 			}
-			double mx = max(swords.length, twords.length);
-	        return ((matching / swords.length) * 0.8) + ((matching / mx) * 0.2);
+			return _similarity(matching, swords.length, twords.length);
+	    }
+
+	    private double _similarity(double matching, int slength, int tlength) {
+			double mx = max(slength, tlength);
+	        return ((matching / slength) * 0.8) + ((matching / mx) * 0.2);
 	    }
+
+		/**
+		 * The similarity if all words of s with a word in t of a length within
+		 * the word matcher's distance matched.
+		 */
+		@Override
+		public double upperBound(PreparedString s, PreparedString t) {
+			return _similarity(matchableWords(ld, s, t), s.words.length, t.words.length);
+		}
+		@Override
+		public double cost() {
+			return 2.0;
+		}
 	}
 
 	public static class WeightedByWordAndPositionLevenshtein extends WeightedByWordLevenshtein {
@@ -187,11 +594,9 @@ public abstract class StringSimilarities {
 			double matching = 0.0;
 			outer: for (int i = 0; i < swords.length; i++) {
 				double sWeight = sweights[i] / sumWeights;
-				String sw = swords[i];
 				for (int j = 0; j < twords.length; j++) {
 					double tWeight = tweights[j] / sumWeights;
-					String tw = twords[j];
-					if (ld.getDistance(sw, tw) > levenshteinThreshold) {
+					if (ld.matches(s, i, t, j)) {
 						double weight = sWeight + tWeight;
 						sweights[i] = 0.0;
 						tweights[j] = 0.0;
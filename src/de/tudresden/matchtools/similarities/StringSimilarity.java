@@ -2,6 +2,12 @@ package de.tudresden.matchtools.similarities;
 
 import de.tudresden.matchtools.datastructures.PreparedString;
 
+/**
+ * A similarity of two strings in [0, 1]. Implementations must be thread-safe
+ * without locking, as MatchTools calls one instance from all its worker and
+ * request threads at once: scratch memory is kept per thread, caches must
+ * tolerate concurrent readers and writers.
+ */
 public interface StringSimilarity {
 	public abstract double similarity(String a, String b);
     public abstract double similarity(PreparedString a, PreparedString b);
@@ -0,0 +1,85 @@
+package de.tudresden.matchtools.similarities;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.tudresden.matchtools.datastructures.TokenDictionary;
+
+/**
+ * A fixed-size, direct-mapped cache of boolean word-pair results, keyed by the
+ * token ids of a TokenDictionary. Each slot packs both ids and the result into
+ * one long, so concurrent readers and writers never see torn entries; a
+ * colliding pair simply replaces the previous one. The cache is bound to the
+ * dictionary it was last filled from and starts over when another one is used.
+ */
+public class WordPairCache {
+	public static final int UNKNOWN = -1;
+
+	private static final long PRESENT = Long.MIN_VALUE;
+
+	private static class Slots {
+		final TokenDictionary dictionary;
+		final AtomicLongArray entries;
+
+		Slots(TokenDictionary dictionary, int capacity) {
+			this.dictionary = dictionary;
+			this.entries = new AtomicLongArray(capacity);
+		}
+	}
+
+	protected final int capacity;
+	protected final int shift;
+	private volatile Slots slots;
+
+	/**
+	 * @param capacity number of slots, rounded up to a power of two
+	 */
+	public WordPairCache(int capacity) {
+		super();
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 2) - 1);
+		this.capacity = 1 << bits;
+		this.shift = 64 - bits;
+		this.slots = new Slots(null, 0);
+	}
+
+	/**
+	 * Returns 1 or 0 for a cached result of the pair, or UNKNOWN.
+	 */
+	public int get(TokenDictionary dictionary, int a, int b) {
+		Slots s = slots;
+		if (s.dictionary != dictionary)
+			return UNKNOWN;
+		long key = key(a, b);
+		long entry = s.entries.get(slot(key));
+		if ((entry & PRESENT) == 0 || ((entry & ~PRESENT) >>> 1) != key)
+			return UNKNOWN;
+		return (int) (entry & 1L);
+	}
+
+	public void put(TokenDictionary dictionary, int a, int b, boolean result) {
+		Slots s = slots;
+		if (s.dictionary != dictionary) {
+			s = new Slots(dictionary, capacity);
+			slots = s;
+		}
+		long key = key(a, b);
+		s.entries.lazySet(slot(key), PRESENT | (key << 1) | (result ? 1L : 0L));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private static long key(int a, int b) {
+		// the similarities are symmetric, so (a, b) and (b, a) share a slot
+		if (a > b) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		return ((long) a << 31) | b;
+	}
+
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+}
@@ -0,0 +1,210 @@
+package de.tudresden.matchtools.weights;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * Weights words by their inverse document frequency in a local corpus,
+ * log((documents + 1) / (df + 1)) + 1, so rare words weigh more than common
+ * ones and words missing from the corpus weigh most. Documents are split into
+ * words like PreparedStrings are, at single spaces.
+ *
+ * write streams the corpus once and stores the weights in an open-addressing
+ * hash table keyed by a 64-bit hash of each word; open maps that file, and
+ * weight looks words up with linear probing directly in the mapping, without
+ * allocating. Words whose hashes collide share a weight, which for 64-bit
+ * hashes is negligible. Instances are read-only and can be shared between
+ * threads.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * int magic, int version, long documents, int terms, int capacity (a power of 2),
+ * float weight of unknown words, int reserved
+ * capacity x long hash, 0 for empty slots
+ * capacity x float weight
+ * </pre>
+ * At most half of the slots are used. Files are limited to 2 GB, the size of a
+ * single mapping, or about 67 million distinct words.
+ */
+public class LocalIdfWeighter extends Weighter {
+	protected static final int MAGIC = 0x4D544957; // "MTIW"
+	protected static final int VERSION = 1;
+	protected static final int HEADER_SIZE = 32;
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	protected final ByteBuffer buffer;
+	protected final long documents;
+	protected final int terms;
+	protected final int mask;
+	protected final int weights;
+	protected final double unknownWeight;
+
+	protected LocalIdfWeighter(ByteBuffer buffer) throws IOException {
+		super();
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("not an idf file");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("unsupported idf file version " + buffer.getInt(4));
+		this.documents = buffer.getLong(8);
+		this.terms = buffer.getInt(16);
+		int capacity = buffer.getInt(20);
+		if (Integer.bitCount(capacity) != 1
+				|| buffer.capacity() != HEADER_SIZE + 12L * capacity)
+			throw new IOException("corrupt idf file");
+		this.mask = capacity - 1;
+		this.weights = HEADER_SIZE + 8 * capacity;
+		this.unknownWeight = buffer.getFloat(24);
+	}
+
+	public static LocalIdfWeighter open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("file too large to map: " + file);
+			return new LocalIdfWeighter(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		}
+	}
+
+	/**
+	 * Counts in how many documents each word occurs, keeping one hash and one
+	 * count per distinct word in memory, and writes their weights to file.
+	 */
+	public static void write(File file, Iterator<String> documents) throws IOException {
+		long[] keys = new long[INITIAL_CAPACITY];
+		int[] counts = new int[INITIAL_CAPACITY];
+		long[] lastDocument = new long[INITIAL_CAPACITY];
+		int terms = 0;
+		long n = 0;
+		while (documents.hasNext()) {
+			n++;
+			for (String word : documents.next().split(" ")) {
+				long key = key(word);
+				int slot = slot(keys, key);
+				if (keys[slot] == 0) {
+					keys[slot] = key;
+					terms++;
+				} else if (lastDocument[slot] == n) {
+					continue;
+				}
+				counts[slot]++;
+				lastDocument[slot] = n;
+				if (2 * terms > keys.length) {
+					long[] oldKeys = keys;
+					int[] oldCounts = counts;
+					long[] oldLastDocument = lastDocument;
+					keys = new long[2 * oldKeys.length];
+					counts = new int[keys.length];
+					lastDocument = new long[keys.length];
+					for (int i = 0; i < oldKeys.length; i++) {
+						if (oldKeys[i] != 0) {
+							int s = slot(keys, oldKeys[i]);
+							keys[s] = oldKeys[i];
+							counts[s] = oldCounts[i];
+							lastDocument[s] = oldLastDocument[i];
+						}
+					}
+				}
+			}
+		}
+
+		int capacity = Math.max(2, Integer.highestOneBit(Math.max(1, 2 * terms - 1)) << 1);
+		if (HEADER_SIZE + 12L * capacity > Integer.MAX_VALUE)
+			throw new IOException("too many distinct words for a single mapping: " + terms);
+		long[] tableKeys = new long[capacity];
+		float[] tableWeights = new float[capacity];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				int s = slot(tableKeys, keys[i]);
+				tableKeys[s] = keys[i];
+				tableWeights[s] = (float) idf(n, counts[i]);
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(n);
+			out.writeInt(terms);
+			out.writeInt(capacity);
+			out.writeFloat((float) idf(n, 0));
+			out.writeInt(0);
+			for (long key : tableKeys) {
+				out.writeLong(key);
+			}
+			for (float weight : tableWeights) {
+				out.writeFloat(weight);
+			}
+		}
+	}
+
+	protected static double idf(long documents, long documentFrequency) {
+		return Math.log((documents + 1.0) / (documentFrequency + 1.0)) + 1.0;
+	}
+
+	/**
+	 * The slot of key in the table keys, or the empty slot where it belongs.
+	 */
+	private static int slot(long[] keys, long key) {
+		int mask = keys.length - 1;
+		int slot = (int) key & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * A 64-bit hash of word, FNV-1a over its characters followed by the
+	 * finalizer of MurmurHash3, so its low bits can index the table. Never 0,
+	 * which marks empty slots.
+	 */
+	protected static long key(String word) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < word.length(); i++) {
+			h ^= word.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	@Override
+	public double weight(String s) {
+		long key = key(s);
+		for (int slot = (int) key & mask;; slot = (slot + 1) & mask) {
+			long k = buffer.getLong(HEADER_SIZE + 8 * slot);
+			if (k == key)
+				return buffer.getFloat(weights + 4 * slot);
+			if (k == 0)
+				return unknownWeight;
+		}
+	}
+
+	/**
+	 * The number of documents of the corpus.
+	 */
+	public long getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * The number of distinct words of the corpus.
+	 */
+	public int getTerms() {
+		return terms;
+	}
+}
@@ -1,17 +1,49 @@
 package de.tudresden.matchtools.weights;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.entity.ContentType;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.Gson;
 
+import de.tudresden.matchtools.metrics.MatchMetrics;
+
+/**
+ * Weights words by their inverse term frequency, as reported by a webreduce
+ * term frequency service. Frequencies are kept in a size-bounded concurrent
+ * cache. Words announced through prefetch are resolved in batches of batchSize
+ * words per request, and the words of a failed batch one by one when they are
+ * weighted; words that could not be resolved get the default weight and are
+ * requested again next time. Cache statistics are available through
+ * getCacheStats, request times are reported to the metrics, if set.
+ * Call shutdown once done with prefetchAsync.
+ */
 public class WebreduceWeighter extends Weighter {
 
+	public static final long DEFAULT_CACHE_SIZE = 1000000;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
 	class TermFrequencyRequest {
 		public String term;
 
@@ -34,39 +66,182 @@ public class WebreduceWeighter extends Weighter {
 		}
 	}
 
+	class TermFrequenciesRequest {
+		public List<String> terms;
+
+		public TermFrequenciesRequest() {
+		}
+
+		public TermFrequenciesRequest(List<String> t) {
+			this.terms = t;
+		}
+	}
+
+	class TermFrequenciesResult {
+		public double[] frequencies;
+
+		public TermFrequenciesResult() {
+		}
+	}
+
 	private String serverUrl;
 	private Gson gson;
-	private Map<String, Double> cache = new HashMap<>();
+	private LoadingCache<String, Double> cache;
+	private int batchSize;
+	/** the thread of prefetchAsync(words), started by its first call */
+	private ExecutorService prefetcher;
+	private volatile MatchMetrics metrics = MatchMetrics.NONE;
 	private final double DEFAULT = Double.MAX_VALUE;
 
 	public WebreduceWeighter(String url) {
+		this(url, DEFAULT_CACHE_SIZE, DEFAULT_BATCH_SIZE);
+	}
+
+	public WebreduceWeighter(String url, long cacheSize, int batchSize) {
 		this.serverUrl = url;
 		this.gson = new Gson();
+		this.batchSize = batchSize;
+		this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats()
+				.build(new CacheLoader<String, Double>() {
+					@Override
+					public Double load(String term) throws IOException {
+						return termFrequency(term);
+					}
+				});
+	}
+
+	/**
+	 * Hits, misses, load times and evictions of the frequency cache since
+	 * construction.
+	 */
+	public CacheStats getCacheStats() {
+		return cache.stats();
+	}
+
+	public void setMetrics(MatchMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("metrics must not be null");
+		this.metrics = metrics;
 	}
 
 	public double weight(String s) {
 		double tf = DEFAULT;
-		Double cached = cache.get(s);
-		if (cached != null)
-			tf = cached;
-		else {
-			TermFrequencyRequest tfReq = new TermFrequencyRequest(s);
-			String reqStr = gson.toJson(tfReq);
+		try {
+			tf = cache.get(s);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			e.printStackTrace();
+		}
+		return 1.0 / tf;
+	}
 
+	/**
+	 * Resolves all words not cached yet, batchSize words per request. Each
+	 * batch is cached as soon as it arrives; the words of a failed batch are
+	 * left to be requested one by one when they are weighted.
+	 */
+	@Override
+	public void prefetch(Collection<String> words) {
+		List<String> missing = new ArrayList<>();
+		for (String word : words) {
+			if (!cache.asMap().containsKey(word))
+				missing.add(word);
+		}
+		for (List<String> batch : Iterables.partition(missing, Math.max(batchSize, 1))) {
 			try {
-				String resp = Request.Post(serverUrl + "/termFrequency")
-						.bodyString(reqStr, ContentType.APPLICATION_JSON)
-						.execute().returnContent().asString();
-				TermFrequencyResult result = gson.fromJson(resp,
-						TermFrequencyResult.class);
-
-				cache.put(s, result.frequency);
-				tf = result.frequency;
+				cache.putAll(termFrequencies(batch));
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
-		return 1.0 / tf;
+	}
+
+	@Override
+	public boolean prefetches() {
+		return true;
+	}
+
+	/**
+	 * Like prefetch, but in a background thread, e.g. to resolve the words of one
+	 * side of a match while the other one is being prepared. The thread is
+	 * started by the first call and runs until shutdown.
+	 */
+	public ListenableFuture<?> prefetchAsync(Collection<String> words) {
+		return prefetchAsync(words, prefetcher());
+	}
+
+	/**
+	 * Like prefetch, but on executor, which the caller remains responsible for
+	 * shutting down.
+	 */
+	public ListenableFuture<?> prefetchAsync(final Collection<String> words,
+			Executor executor) {
+		ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
+			@Override
+			public Void call() {
+				prefetch(words);
+				return null;
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Shuts down the thread of prefetchAsync(words), if it was started, once the
+	 * prefetches submitted to it are done. A later call starts a new one.
+	 */
+	public synchronized void shutdown() {
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+	}
+
+	private synchronized ExecutorService prefetcher() {
+		if (prefetcher == null) {
+			prefetcher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("webreduce-prefetch-%d").build());
+		}
+		return prefetcher;
+	}
+
+	protected double termFrequency(String term) throws IOException {
+		long start = System.nanoTime();
+		TermFrequencyRequest tfReq = new TermFrequencyRequest(term);
+		String reqStr = gson.toJson(tfReq);
+		String resp = Request.Post(serverUrl + "/termFrequency")
+				.bodyString(reqStr, ContentType.APPLICATION_JSON)
+				.execute().returnContent().asString();
+		TermFrequencyResult result = gson.fromJson(resp,
+				TermFrequencyResult.class);
+		if (metrics.isEnabled())
+			metrics.weightsFetched(1, System.nanoTime() - start);
+		return result.frequency;
+	}
+
+	/**
+	 * The frequencies of one batch of terms, fetched with a single request.
+	 */
+	protected Map<String, Double> termFrequencies(List<String> batch)
+			throws IOException {
+		long start = System.nanoTime();
+		TermFrequenciesRequest tfReq = new TermFrequenciesRequest(batch);
+		String reqStr = gson.toJson(tfReq);
+		String resp = Request.Post(serverUrl + "/termFrequencies")
+				.bodyString(reqStr, ContentType.APPLICATION_JSON)
+				.execute().returnContent().asString();
+		TermFrequenciesResult result = gson.fromJson(resp,
+				TermFrequenciesResult.class);
+		if (result.frequencies == null || result.frequencies.length != batch.size())
+			throw new IOException("expected " + batch.size()
+					+ " frequencies, got " + (result.frequencies == null ? 0 : result.frequencies.length));
+		Map<String, Double> frequencies = new HashMap<>();
+		for (int i = 0; i < batch.size(); i++) {
+			frequencies.put(batch.get(i), result.frequencies[i]);
+		}
+		if (metrics.isEnabled())
+			metrics.weightsFetched(batch.size(), System.nanoTime() - start);
+		return frequencies;
 	}
 
 	public static void main(String[] args) throws ClientProtocolException,
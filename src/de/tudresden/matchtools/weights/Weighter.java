@@ -1,8 +1,30 @@
 package de.tudresden.matchtools.weights;
 
+import java.util.Collection;
+
+/**
+ * Weights the words of strings being prepared, by default all with 1.
+ * Subclasses must be thread-safe, as MatchTools prepares strings in several
+ * threads at once.
+ */
 public class Weighter {
-	
+
 	public double weight(String s) {
 		return 1.0;
 	}
+
+	/**
+	 * Announces words that are about to be weighted, so that weighters backed by
+	 * a remote service can resolve them in bulk. Does nothing by default.
+	 */
+	public void prefetch(Collection<String> words) {
+	}
+
+	/**
+	 * Whether prefetch does anything. If not, callers can skip collecting the
+	 * words to announce.
+	 */
+	public boolean prefetches() {
+		return false;
+	}
 }